@@ -0,0 +1,161 @@
+package edu.gwu.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * A small benchmark harness: warm-up iterations, then timed iterations of
+ * one operation, reported as time per operation and operations per second.
+ * Each iteration may perform many operations (rows indexed, hits
+ * highlighted), and consume() keeps results alive so the JIT cannot drop
+ * the work that produced them.
+ */
+public class Bench
+{
+	public interface Op
+	{
+		/**
+		 * One iteration; returns how many operations it performed.
+		 */
+		long run() throws Exception;
+	}
+
+	/**
+	 * Work done outside the timed region before each iteration, e.g.
+	 * deleting the previous iteration's index.
+	 */
+	public interface Setup
+	{
+		void run() throws Exception;
+	}
+
+	private static volatile int sink;
+
+	private final PrintStream out;
+	private final int warmups;
+	private final int iterations;
+	private final String[] filters;
+
+	/**
+	 * filters are substrings of benchmark names to run; none runs them all.
+	 */
+	public Bench(PrintStream out, int warmups, int iterations, String... filters)
+	{
+		this.out = out;
+		this.warmups = warmups;
+		this.iterations = iterations;
+		this.filters = filters;
+	}
+
+	public static void consume(Object o)
+	{
+		sink ^= System.identityHashCode(o);
+	}
+
+	public static void consume(long v)
+	{
+		sink ^= (int)(v ^ (v >>> 32));
+	}
+
+	public boolean matches(String name)
+	{
+		if(filters.length == 0)
+		{
+			return true;
+		}
+		for(String f : filters)
+		{
+			if(name.contains(f))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public void run(String name, Op op) throws Exception
+	{
+		run(name, null, op);
+	}
+
+	public void run(String name, Setup setup, Op op) throws Exception
+	{
+		if(!matches(name))
+		{
+			return;
+		}
+		for(int i=0; i<warmups; i++)
+		{
+			if(setup != null)
+			{
+				setup.run();
+			}
+			consume(op.run());
+		}
+		double[] perOp = new double[iterations];
+		long totalOps = 0;
+		long totalNanos = 0;
+		for(int i=0; i<iterations; i++)
+		{
+			if(setup != null)
+			{
+				setup.run();
+			}
+			long start = System.nanoTime();
+			long ops = op.run();
+			long nanos = System.nanoTime() - start;
+			consume(ops);
+			perOp[i] = nanos / (double)Math.max(1, ops);
+			totalOps += ops;
+			totalNanos += nanos;
+		}
+		Arrays.sort(perOp);
+		out.println(String.format("%-44s %10s %10s %10s %14.1f ops/s",
+				name, format(totalNanos / (double)Math.max(1, totalOps)), format(perOp[iterations / 2]),
+				format(perOp[Math.min(iterations - 1, (int)(iterations * 0.9))]),
+				totalOps * 1e9 / Math.max(1, totalNanos)));
+	}
+
+	public void printHeader()
+	{
+		out.println(String.format("%-44s %10s %10s %10s %18s", "benchmark", "mean/op", "p50/op", "p90/op", "throughput"));
+	}
+
+	/**
+	 * Discards System.out, where the indexes print per-search timings, and
+	 * returns the original stream for reporting.
+	 */
+	public static PrintStream silenceSystemOut()
+	{
+		PrintStream original = System.out;
+		System.setOut(new PrintStream(new OutputStream()
+		{
+			@Override
+			public void write(int b)
+			{
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len)
+			{
+			}
+		}));
+		return original;
+	}
+
+	static String format(double nanos)
+	{
+		if(nanos >= 1e9)
+		{
+			return String.format("%.2f s", nanos / 1e9);
+		}else if(nanos >= 1e6)
+		{
+			return String.format("%.2f ms", nanos / 1e6);
+		}else if(nanos >= 1e3)
+		{
+			return String.format("%.1f us", nanos / 1e3);
+		}
+		return String.format("%.0f ns", nanos);
+	}
+}
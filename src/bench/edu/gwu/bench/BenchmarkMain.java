@@ -0,0 +1,100 @@
+package edu.gwu.bench;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.gwu.spatial.SpatialBenchmarks;
+import edu.gwu.text.TextBenchmarks;
+
+/**
+ * Runs the ingest, query and highlighting benchmarks against a synthetic
+ * dataset generated from a fixed seed.
+ *
+ * Usage: BenchmarkMain [-rows N] [-seed S] [-warmups N] [-iterations N]
+ *        [-dir D] [name filter ...]
+ *
+ * The dataset and indexes go in a temporary directory unless -dir is
+ * given; a kept -dir lets later runs skip building the query index.  The
+ * indexes print progress and timings to System.out, which is silenced
+ * while benchmarks run.
+ */
+public class BenchmarkMain
+{
+	public static void main(String[] args) throws Exception
+	{
+		int rows = 100000;
+		long seed = 42;
+		int warmups = 3;
+		int iterations = 10;
+		File dir = null;
+		List<String> filters = new ArrayList<String>();
+		for(int i=0; i<args.length; i++)
+		{
+			if(args[i].equals("-rows"))
+			{
+				rows = Integer.parseInt(args[++i]);
+			}else if(args[i].equals("-seed"))
+			{
+				seed = Long.parseLong(args[++i]);
+			}else if(args[i].equals("-warmups"))
+			{
+				warmups = Integer.parseInt(args[++i]);
+			}else if(args[i].equals("-iterations"))
+			{
+				iterations = Integer.parseInt(args[++i]);
+			}else if(args[i].equals("-dir"))
+			{
+				dir = new File(args[++i]);
+			}else
+			{
+				filters.add(args[i]);
+			}
+		}
+		boolean temporary = dir == null;
+		if(temporary)
+		{
+			dir = File.createTempFile("lucene-bench", "");
+			dir.delete();
+		}
+		dir.mkdirs();
+
+		PrintStream out = System.out;
+		try
+		{
+			File data = new File(dir, "NationalFile_synthetic_"+rows+"_"+seed+".txt");
+			if(!data.exists())
+			{
+				out.println("Writing "+rows+" synthetic rows to "+data);
+				new SyntheticNationalFile(seed).write(data, rows);
+			}
+			out.println(rows+" rows, seed "+seed+", "+warmups+" warm-up and "+iterations+" measured iterations");
+			Bench.silenceSystemOut();
+			Bench bench = new Bench(out, warmups, iterations, filters.toArray(new String[filters.size()]));
+			bench.printHeader();
+			SpatialBenchmarks.run(bench, dir, data, rows, seed);
+			TextBenchmarks.run(bench, dir, seed);
+		}finally
+		{
+			System.setOut(out);
+			if(temporary)
+			{
+				delete(dir);
+			}
+		}
+	}
+
+	public static void delete(File file)
+	{
+		File[] children = file.listFiles();
+		if(children != null)
+		{
+			for(File child : children)
+			{
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
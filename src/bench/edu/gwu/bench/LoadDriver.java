@@ -0,0 +1,295 @@
+package edu.gwu.bench;
+
+import gov.nasa.worldwind.geom.Position;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.gwu.spatial.USGSDomesticNamesIndex;
+import edu.gwu.spatial.ViewportResultCache;
+
+/**
+ * Replays a viewport search trace against a USGSDomesticNamesIndex from N
+ * concurrent clients and reports throughput, latency percentiles, heap and
+ * GC use.  Each client starts at its own offset into the trace and loops
+ * over it until the run ends; a warm-up period runs first and is not
+ * measured.
+ *
+ * Usage: LoadDriver -index DIR [-data FILE] [-trace FILE | -sessions N]
+ *        [-seed S] [-writeTrace FILE] [-clients N] [-warmup SECONDS]
+ *        [-duration SECONDS] [-nocache]
+ *
+ * -data indexes a NationalFile first, e.g. one written by
+ * SyntheticNationalFile; without -trace a trace of N sessions is
+ * synthesized from the seed.  Searches go through findResults and its
+ * viewport cache, which the warm-up has already filled from the same
+ * trace, so the cache's hits and misses during the measured run are
+ * reported with the results; -nocache searches with findInBox instead, to
+ * measure the index alone.
+ */
+public class LoadDriver
+{
+	private final USGSDomesticNamesIndex index;
+	private final List<QueryTrace.Entry> trace;
+	private final int clients;
+	private final boolean cached;
+
+	public LoadDriver(USGSDomesticNamesIndex index, List<QueryTrace.Entry> trace, int clients)
+	{
+		this(index, trace, clients, true);
+	}
+
+	/**
+	 * Without cached, searches skip the viewport result cache.
+	 */
+	public LoadDriver(USGSDomesticNamesIndex index, List<QueryTrace.Entry> trace, int clients, boolean cached)
+	{
+		this.index = index;
+		this.trace = trace;
+		this.clients = clients;
+		this.cached = cached;
+	}
+
+	/**
+	 * Runs every client for the given time and returns each search's
+	 * latency in nanoseconds, in no particular order.
+	 */
+	public long[] run(long millis, AtomicLong errors) throws InterruptedException
+	{
+		final long deadline = System.nanoTime() + millis * 1000000L;
+		final Client[] running = new Client[clients];
+		final CountDownLatch done = new CountDownLatch(clients);
+		for(int c=0; c<clients; c++)
+		{
+			running[c] = new Client(c * trace.size() / clients, deadline, errors, done);
+			new Thread(running[c], "load-client-"+c).start();
+		}
+		done.await();
+		int total = 0;
+		for(Client c : running)
+		{
+			total += c.count;
+		}
+		long[] all = new long[total];
+		int at = 0;
+		for(Client c : running)
+		{
+			System.arraycopy(c.latencies, 0, all, at, c.count);
+			at += c.count;
+		}
+		return all;
+	}
+
+	private class Client implements Runnable
+	{
+		private final int start;
+		private final long deadline;
+		private final AtomicLong errors;
+		private final CountDownLatch done;
+		long[] latencies = new long[1024];
+		int count;
+
+		Client(int start, long deadline, AtomicLong errors, CountDownLatch done)
+		{
+			this.start = start;
+			this.deadline = deadline;
+			this.errors = errors;
+			this.done = done;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				for(int i=start; System.nanoTime() < deadline; i++)
+				{
+					QueryTrace.Entry e = trace.get(i % trace.size());
+					Position nw = Position.fromDegrees(e.maxLat, e.minLon, 0);
+					Position se = Position.fromDegrees(e.minLat, e.maxLon, 0);
+					long begin = System.nanoTime();
+					try
+					{
+						if(cached)
+						{
+							Bench.consume(index.findResults(e.query, nw, se));
+						}else
+						{
+							Bench.consume(index.findInBox(e.query, new double[]{e.minLat, e.maxLat, e.minLon, e.maxLon},
+									100, null).getResults());
+						}
+					}catch(Exception ex)
+					{
+						errors.incrementAndGet();
+						continue;
+					}
+					long latency = System.nanoTime() - begin;
+					if(count == latencies.length)
+					{
+						latencies = Arrays.copyOf(latencies, count * 2);
+					}
+					latencies[count++] = latency;
+				}
+			}finally
+			{
+				done.countDown();
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		File indexDir = null;
+		File data = null;
+		File traceFile = null;
+		File writeTrace = null;
+		int sessions = 1000;
+		long seed = 42;
+		int clients = Runtime.getRuntime().availableProcessors();
+		int warmup = 5;
+		int duration = 30;
+		boolean cached = true;
+		for(int i=0; i<args.length; i++)
+		{
+			String a = args[i];
+			if(a.equals("-index"))
+			{
+				indexDir = new File(args[++i]);
+			}else if(a.equals("-data"))
+			{
+				data = new File(args[++i]);
+			}else if(a.equals("-trace"))
+			{
+				traceFile = new File(args[++i]);
+			}else if(a.equals("-writeTrace"))
+			{
+				writeTrace = new File(args[++i]);
+			}else if(a.equals("-sessions"))
+			{
+				sessions = Integer.parseInt(args[++i]);
+			}else if(a.equals("-seed"))
+			{
+				seed = Long.parseLong(args[++i]);
+			}else if(a.equals("-clients"))
+			{
+				clients = Integer.parseInt(args[++i]);
+			}else if(a.equals("-warmup"))
+			{
+				warmup = Integer.parseInt(args[++i]);
+			}else if(a.equals("-duration"))
+			{
+				duration = Integer.parseInt(args[++i]);
+			}else if(a.equals("-nocache"))
+			{
+				cached = false;
+			}else
+			{
+				throw new IllegalArgumentException("Unknown argument "+a);
+			}
+		}
+		if(indexDir == null)
+		{
+			System.err.println("Usage: LoadDriver -index DIR [-data FILE] [-trace FILE | -sessions N] [-seed S]"
+					+" [-writeTrace FILE] [-clients N] [-warmup SECONDS] [-duration SECONDS] [-nocache]");
+			System.exit(1);
+		}
+
+		PrintStream out = Bench.silenceSystemOut();
+		List<QueryTrace.Entry> trace = traceFile != null ? QueryTrace.read(traceFile) : QueryTrace.synthesize(sessions, seed);
+		if(writeTrace != null)
+		{
+			QueryTrace.write(trace, writeTrace);
+		}
+		USGSDomesticNamesIndex index = new USGSDomesticNamesIndex(indexDir);
+		try
+		{
+			if(data != null)
+			{
+				out.println("Indexing "+data);
+				long start = System.nanoTime();
+				index.addFile(data);
+				out.println(String.format("Indexed in %.1f s", (System.nanoTime() - start) / 1e9));
+			}
+			out.println(trace.size()+" searches in trace, "+clients+" clients, "+warmup+" s warm-up, "+duration+" s measured"
+					+(cached ? "" : ", viewport cache bypassed"));
+			LoadDriver driver = new LoadDriver(index, trace, clients, cached);
+			driver.run(warmup * 1000L, new AtomicLong());
+
+			for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			{
+				pool.resetPeakUsage();
+			}
+			long[] gcBefore = gcTotals();
+			ViewportResultCache cache = index.getResultCache();
+			long hits = cache.getHits(), containedHits = cache.getContainedHits(), misses = cache.getMisses();
+			AtomicLong errors = new AtomicLong();
+			long start = System.nanoTime();
+			long[] latencies = driver.run(duration * 1000L, errors);
+			long elapsed = System.nanoTime() - start;
+			long[] gcAfter = gcTotals();
+			hits = cache.getHits() - hits;
+			containedHits = cache.getContainedHits() - containedHits;
+			misses = cache.getMisses() - misses;
+
+			Arrays.sort(latencies);
+			out.println(String.format("searches  %d (%d errors)", latencies.length, errors.get()));
+			out.println(String.format("throughput  %.1f searches/s", latencies.length * 1e9 / elapsed));
+			if(latencies.length > 0)
+			{
+				out.println("latency  p50 "+Bench.format(percentile(latencies, 0.50))
+						+"  p95 "+Bench.format(percentile(latencies, 0.95))
+						+"  p99 "+Bench.format(percentile(latencies, 0.99))
+						+"  max "+Bench.format(latencies[latencies.length - 1]));
+			}
+			if(cached)
+			{
+				long lookups = Math.max(1, hits + containedHits + misses);
+				out.println(String.format("viewport cache  %d hits, %d contained hits, %d misses (%.1f%% answered from cache)",
+						hits, containedHits, misses, (hits + containedHits) * 100.0 / lookups));
+			}
+			long peak = 0;
+			for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			{
+				if(pool.getType() == MemoryType.HEAP)
+				{
+					peak += pool.getPeakUsage().getUsed();
+				}
+			}
+			out.println(String.format("heap  %d MB used now, %d MB peak pool total, %d MB max",
+					ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() >> 20, peak >> 20,
+					Runtime.getRuntime().maxMemory() >> 20));
+			long collections = gcAfter[0] - gcBefore[0];
+			long gcMillis = gcAfter[1] - gcBefore[1];
+			out.println(String.format("gc  %d collections, %d ms (%.1f%% of run)",
+					collections, gcMillis, gcMillis * 1e8 / elapsed));
+		}finally
+		{
+			index.close();
+		}
+	}
+
+	private static double percentile(long[] sorted, double p)
+	{
+		return sorted[Math.min(sorted.length - 1, (int)Math.ceil(p * sorted.length) - 1)];
+	}
+
+	//{collections, milliseconds} over every collector
+	private static long[] gcTotals()
+	{
+		long[] totals = new long[2];
+		for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+		{
+			totals[0] += Math.max(0, gc.getCollectionCount());
+			totals[1] += Math.max(0, gc.getCollectionTime());
+		}
+		return totals;
+	}
+}
@@ -0,0 +1,122 @@
+package edu.gwu.bench;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A sequence of viewport searches to replay, one per line in the same
+ * pipe-delimited style as the USGS file:
+ *
+ *   query|minLat|maxLat|minLon|maxLon
+ *
+ * synthesize() makes a trace shaped like interactive use: each session
+ * types a query of one or two Zipf distributed words and then pans and
+ * zooms around a population center, searching at every stop.
+ */
+public class QueryTrace
+{
+	public static class Entry
+	{
+		public final String query;
+		public final double minLat, maxLat, minLon, maxLon;
+
+		public Entry(String query, double minLat, double maxLat, double minLon, double maxLon)
+		{
+			this.query = query;
+			this.minLat = minLat;
+			this.maxLat = maxLat;
+			this.minLon = minLon;
+			this.maxLon = maxLon;
+		}
+	}
+
+	private static final double MIN_SPAN = 0.25, MAX_SPAN = 40;
+
+	public static List<Entry> synthesize(int sessions, long seed)
+	{
+		Random random = new Random(seed);
+		String[] words = SyntheticNationalFile.words();
+		List<Entry> trace = new ArrayList<Entry>();
+		for(int s=0; s<sessions; s++)
+		{
+			String query = words[SyntheticNationalFile.word(random)];
+			if(random.nextInt(3) == 0)
+			{
+				query += " "+words[SyntheticNationalFile.word(random)];
+			}
+			double[] center = SyntheticNationalFile.center(random);
+			double lat = center[0];
+			double lon = center[1];
+			//log-uniform, so small and national views are both common
+			double span = MIN_SPAN * Math.pow(MAX_SPAN / MIN_SPAN, random.nextDouble());
+			int stops = 5 + random.nextInt(16);
+			for(int i=0; i<stops; i++)
+			{
+				double height = span / 1.5;
+				trace.add(new Entry(query, lat - height / 2, lat + height / 2, lon - span / 2, lon + span / 2));
+				if(random.nextInt(4) == 0)
+				{
+					span = Math.max(MIN_SPAN, Math.min(MAX_SPAN, span * (random.nextBoolean() ? 2 : 0.5)));
+				}else
+				{
+					lat += (random.nextDouble() - 0.5) * height * 0.5;
+					lon += (random.nextDouble() - 0.5) * span * 0.5;
+				}
+			}
+		}
+		return trace;
+	}
+
+	public static List<Entry> read(File file) throws IOException
+	{
+		List<Entry> trace = new ArrayList<Entry>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try
+		{
+			String line;
+			while((line = in.readLine()) != null)
+			{
+				if(line.trim().isEmpty())
+				{
+					continue;
+				}
+				String[] v = line.split("\\|");
+				if(v.length != 5)
+				{
+					throw new IOException("Expected query|minLat|maxLat|minLon|maxLon, got "+line);
+				}
+				trace.add(new Entry(v[0], Double.parseDouble(v[1]), Double.parseDouble(v[2]),
+						Double.parseDouble(v[3]), Double.parseDouble(v[4])));
+			}
+		}finally
+		{
+			in.close();
+		}
+		return trace;
+	}
+
+	public static void write(List<Entry> trace, File file) throws IOException
+	{
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try
+		{
+			for(Entry e : trace)
+			{
+				out.write(e.query+"|"+e.minLat+"|"+e.maxLat+"|"+e.minLon+"|"+e.maxLon+"\n");
+			}
+		}finally
+		{
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package edu.gwu.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Writes a USGS NationalFile-format, pipe-delimited file of synthetic
+ * features, of any size, streamed row by row.  The same seed always
+ * produces the same file, so numbers measured against it by different
+ * versions of the code are comparable.
+ *
+ * The distributions follow the real file closely enough to exercise the
+ * index the same way: name words are Zipf distributed, so a few words
+ * ("Mill", "Pine") match far more features than most; feature classes
+ * are weighted roughly as in GNIS, streams and buildings first, and each
+ * class takes fitting generic terms ("Creek" for a stream); and most
+ * features cluster around population centers, with the rest spread over
+ * the contiguous US.  Each row's state and county come from its nearest
+ * center, so state sharding sees contiguous regions.
+ *
+ * Usage: SyntheticNationalFile file rows [seed]
+ */
+public class SyntheticNationalFile
+{
+	static final String HEADER = "FEATURE_ID|FEATURE_NAME|FEATURE_CLASS|STATE_ALPHA|STATE_NUMERIC|COUNTY_NAME|COUNTY_NUMERIC"
+			+"|PRIMARY_LAT_DMS|PRIM_LONG_DMS|PRIM_LAT_DEC|PRIM_LONG_DEC|SOURCE_LAT_DMS|SOURCE_LONG_DMS|SOURCE_LAT_DEC"
+			+"|SOURCE_LONG_DEC|ELEV_IN_M|ELEV_IN_FT|MAP_NAME|DATE_CREATED|DATE_EDITED";
+
+	//most frequent first; picked with a Zipf distribution
+	static final String[] WORDS = {
+		"Mill", "Pine", "Bear", "Oak", "Cedar", "Spring", "Big", "Little", "Rock", "Mud",
+		"Black", "Long", "Walnut", "Beaver", "Clear", "Dry", "Sand", "Red", "Indian", "Cherry",
+		"White", "Willow", "Turkey", "Deer", "Green", "Elk", "Bethel", "Union", "Fox", "Lost",
+		"Stony", "Hickory", "Poplar", "Maple", "Silver", "Cold", "Eagle", "Wolf", "Horse", "Buck",
+		"Cottonwood", "Lone", "Hidden", "Round", "Twin", "Grand", "Mount", "Saint", "Fort", "New",
+		"Copper", "Iron", "Gold", "Aspen", "Sulphur", "Salt", "Hot", "Piney", "Muddy", "Laurel",
+		"Crooked", "Sugar", "Panther", "Wildcat", "Buffalo", "Antelope", "Coyote", "Hog", "Goose", "Swan",
+		"Shady", "Pleasant", "Liberty", "Zion", "Hope", "Grace", "Calvary", "Emmanuel", "Trinity", "Shiloh",
+	};
+	private static final double ZIPF_EXPONENT = 1.0;
+
+	/** class, weight, generic terms */
+	private static final Object[][] CLASSES = {
+		{"Stream", 21, new String[]{"Creek", "Run", "Branch", "Brook", "River", "Fork"}},
+		{"Building", 13, new String[]{"Hall", "Center", "Building", "Library", "Post Office"}},
+		{"Populated Place", 9, new String[]{"", "Village", "Heights", "Estates", "Acres"}},
+		{"Church", 8, new String[]{"Church", "Chapel", "Baptist Church", "Methodist Church"}},
+		{"School", 7, new String[]{"School", "Elementary School", "High School", "Academy"}},
+		{"Locale", 6, new String[]{"Station", "Crossing", "Landing", "Corner", "Ranch"}},
+		{"Cemetery", 6, new String[]{"Cemetery", "Burial Ground"}},
+		{"Reservoir", 4, new String[]{"Reservoir", "Tank", "Pond"}},
+		{"Summit", 4, new String[]{"Peak", "Mountain", "Hill", "Butte", "Knob"}},
+		{"Valley", 4, new String[]{"Valley", "Hollow", "Canyon", "Draw", "Gulch"}},
+		{"Dam", 3, new String[]{"Dam"}},
+		{"Lake", 3, new String[]{"Lake", "Pond"}},
+		{"Park", 3, new String[]{"Park", "Recreation Area", "Playground"}},
+		{"Spring", 2, new String[]{"Spring", "Springs", "Well"}},
+		{"Mine", 2, new String[]{"Mine", "Pit", "Quarry"}},
+		{"Ridge", 2, new String[]{"Ridge", "Mesa", "Bluff"}},
+		{"Bridge", 1, new String[]{"Bridge"}},
+		{"Airport", 1, new String[]{"Airport", "Airfield"}},
+		{"Flat", 1, new String[]{"Flat", "Flats", "Meadow", "Prairie"}},
+	};
+
+	/** name, state, state code, lat, lon, weight */
+	private static final Object[][] CENTERS = {
+		{"New York", "NY", 36, 40.71, -74.01, 20}, {"Los Angeles", "CA", 6, 34.05, -118.24, 13},
+		{"Chicago", "IL", 17, 41.88, -87.63, 10}, {"Houston", "TX", 48, 29.76, -95.37, 7},
+		{"Phoenix", "AZ", 4, 33.45, -112.07, 5}, {"Philadelphia", "PA", 42, 39.95, -75.17, 6},
+		{"San Antonio", "TX", 48, 29.42, -98.49, 3}, {"Dallas", "TX", 48, 32.78, -96.80, 7},
+		{"Atlanta", "GA", 13, 33.75, -84.39, 6}, {"Miami", "FL", 12, 25.76, -80.19, 6},
+		{"Seattle", "WA", 53, 47.61, -122.33, 4}, {"Denver", "CO", 8, 39.74, -104.99, 3},
+		{"Minneapolis", "MN", 27, 44.98, -93.27, 4}, {"St. Louis", "MO", 29, 38.63, -90.20, 3},
+		{"Pittsburgh", "PA", 42, 40.44, -80.00, 3}, {"Charlotte", "NC", 37, 35.23, -80.84, 3},
+		{"Nashville", "TN", 47, 36.16, -86.78, 2}, {"Kansas City", "MO", 29, 39.10, -94.58, 2},
+		{"Salt Lake City", "UT", 49, 40.76, -111.89, 2}, {"Albuquerque", "NM", 35, 35.08, -106.65, 1},
+		{"Boise", "ID", 16, 43.62, -116.20, 1}, {"Billings", "MT", 30, 45.78, -108.50, 1},
+		{"Omaha", "NE", 31, 41.26, -95.93, 1}, {"Oklahoma City", "OK", 40, 35.47, -97.52, 2},
+		{"Portland", "OR", 41, 45.52, -122.68, 3}, {"Las Vegas", "NV", 32, 36.17, -115.14, 2},
+		{"Richmond", "VA", 51, 37.54, -77.44, 2}, {"Columbus", "OH", 39, 39.96, -83.00, 3},
+		{"Louisville", "KY", 21, 38.25, -85.76, 2}, {"Des Moines", "IA", 19, 41.59, -93.62, 1},
+		{"Cheyenne", "WY", 56, 41.14, -104.82, 1}, {"Tucson", "AZ", 4, 32.22, -110.97, 1},
+	};
+	private static final String[] COUNTIES = {
+		"Washington", "Jefferson", "Franklin", "Jackson", "Lincoln", "Madison", "Clay", "Monroe",
+		"Marion", "Union", "Warren", "Greene", "Wayne", "Montgomery", "Carroll", "Grant",
+	};
+	//share of features spread uniformly rather than around a center
+	private static final double BACKGROUND = 0.3;
+	//standard deviation, in degrees, of features around their center
+	private static final double SPREAD = 1.2;
+
+	private static final double[] wordWeights = zipf(WORDS.length, ZIPF_EXPONENT);
+	private static final double[] classWeights = cumulative(CLASSES, 1);
+	private static final double[] centerWeights = cumulative(CENTERS, 5);
+
+	/** The contiguous US box the features fall in. */
+	public static final double MIN_LAT = 25, MAX_LAT = 49, MIN_LON = -124, MAX_LON = -67;
+
+	private final long seed;
+
+	public SyntheticNationalFile(long seed)
+	{
+		this.seed = seed;
+	}
+
+	/**
+	 * The words feature names are made from, most frequent first, for
+	 * building queries.
+	 */
+	public static String[] words()
+	{
+		return WORDS.clone();
+	}
+
+	/**
+	 * Latitude and longitude of the population centers, weighted, for
+	 * placing viewports where the features are.
+	 */
+	static double[] center(Random random)
+	{
+		Object[] c = CENTERS[pick(centerWeights, random)];
+		return new double[]{(Double)c[3], (Double)c[4]};
+	}
+
+	/**
+	 * A Zipf distributed index into WORDS.
+	 */
+	static int word(Random random)
+	{
+		return pick(wordWeights, random);
+	}
+
+	public void write(File file, long rows) throws IOException
+	{
+		Random random = new Random(seed);
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 1 << 16);
+		try
+		{
+			out.write(HEADER);
+			out.write('\n');
+			StringBuilder line = new StringBuilder(160);
+			for(long i=1; i<=rows; i++)
+			{
+				line.setLength(0);
+				double lat, lon;
+				Object[] center;
+				if(random.nextDouble() < BACKGROUND)
+				{
+					lat = MIN_LAT + random.nextDouble() * (MAX_LAT - MIN_LAT);
+					lon = MIN_LON + random.nextDouble() * (MAX_LON - MIN_LON);
+					center = nearest(lat, lon);
+				}else
+				{
+					center = CENTERS[pick(centerWeights, random)];
+					lat = clamp((Double)center[3] + random.nextGaussian() * SPREAD, MIN_LAT, MAX_LAT);
+					lon = clamp((Double)center[4] + random.nextGaussian() * SPREAD * 1.3, MIN_LON, MAX_LON);
+				}
+				Object[] featureClass = CLASSES[pick(classWeights, random)];
+				String[] generic = (String[])featureClass[2];
+				int countyNumber = (int)(Math.abs(Math.floor(lat * 3) * 7 + Math.floor(lon * 3)) % COUNTIES.length);
+				String county = COUNTIES[countyNumber];
+
+				line.append(i).append('|');
+				line.append(WORDS[word(random)]);
+				if(random.nextInt(4) == 0)
+				{
+					line.append(' ').append(WORDS[word(random)]);
+				}
+				String term = generic[random.nextInt(generic.length)];
+				if(term.length() > 0)
+				{
+					line.append(' ').append(term);
+				}
+				line.append('|').append(featureClass[0]).append('|');
+				line.append(center[1]).append('|').append(center[2]).append('|');
+				line.append(county).append('|').append(countyNumber * 2 + 1).append("|||");
+				line.append(round(lat)).append('|').append(round(lon)).append("|||||");
+				int elevation = (int)(200 + Math.abs(random.nextGaussian()) * (lon < -100 ? 1500 : 300));
+				line.append(elevation).append('|').append(Math.round(elevation * 3.28084)).append('|');
+				line.append(center[0]).append("|01/01/2000|\n");
+				out.write(line.toString());
+			}
+		}finally
+		{
+			out.close();
+		}
+	}
+
+	private static Object[] nearest(double lat, double lon)
+	{
+		Object[] best = CENTERS[0];
+		double bestDistance = Double.MAX_VALUE;
+		for(Object[] c : CENTERS)
+		{
+			double dLat = lat - (Double)c[3];
+			double dLon = lon - (Double)c[4];
+			double d = dLat * dLat + dLon * dLon;
+			if(d < bestDistance)
+			{
+				bestDistance = d;
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	private static double[] zipf(int n, double exponent)
+	{
+		double[] cumulative = new double[n];
+		double sum = 0;
+		for(int i=0; i<n; i++)
+		{
+			sum += 1 / Math.pow(i + 1, exponent);
+			cumulative[i] = sum;
+		}
+		return cumulative;
+	}
+
+	private static double[] cumulative(Object[][] rows, int weightColumn)
+	{
+		double[] cumulative = new double[rows.length];
+		double sum = 0;
+		for(int i=0; i<rows.length; i++)
+		{
+			sum += ((Number)rows[i][weightColumn]).doubleValue();
+			cumulative[i] = sum;
+		}
+		return cumulative;
+	}
+
+	private static int pick(double[] cumulative, Random random)
+	{
+		double r = random.nextDouble() * cumulative[cumulative.length - 1];
+		int i = Arrays.binarySearch(cumulative, r);
+		return i >= 0 ? i : -i - 1;
+	}
+
+	private static double clamp(double v, double min, double max)
+	{
+		return Math.max(min, Math.min(max, v));
+	}
+
+	//seven decimals, as in the USGS file
+	private static double round(double degrees)
+	{
+		return Math.round(degrees * 1e7) / 1e7;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if(args.length < 2)
+		{
+			System.err.println("Usage: SyntheticNationalFile file rows [seed]");
+			System.exit(1);
+		}
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+		new SyntheticNationalFile(seed).write(new File(args[0]), Long.parseLong(args[1]));
+	}
+}
@@ -0,0 +1,203 @@
+package edu.gwu.spatial;
+
+import gov.nasa.worldwind.geom.Position;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.FSDirectory;
+
+import edu.gwu.bench.Bench;
+import edu.gwu.bench.BenchmarkMain;
+import edu.gwu.bench.SyntheticNationalFile;
+
+/**
+ * Ingest and query benchmarks for USGSDomesticNamesIndex.  Lives in the
+ * index's package to reach the query builders.
+ */
+public class SpatialBenchmarks
+{
+	//searches per iteration for the query benchmarks
+	private static final int SEARCHES = 50;
+	private static final double[] VIEWPORT_DEGREES = {0.5, 2, 8, 32};
+
+	public static void run(final Bench bench, File work, final File data, final int rows, final long seed) throws Exception
+	{
+		final File ingestDir = new File(work, "ingest-index");
+		Bench.Setup clean = new Bench.Setup()
+		{
+			@Override
+			public void run()
+			{
+				BenchmarkMain.delete(ingestDir);
+			}
+		};
+		bench.run("addFile rows", clean, new Bench.Op()
+		{
+			@Override
+			public long run() throws Exception
+			{
+				USGSDomesticNamesIndex index = new USGSDomesticNamesIndex(ingestDir);
+				index.addFile(data);
+				index.close();
+				return rows;
+			}
+		});
+		bench.run("addFile rows, 1 worker", clean, new Bench.Op()
+		{
+			@Override
+			public long run() throws Exception
+			{
+				USGSDomesticNamesIndex index = new USGSDomesticNamesIndex(ingestDir);
+				index.addFile(data, 1);
+				index.close();
+				return rows;
+			}
+		});
+		BenchmarkMain.delete(ingestDir);
+
+		File queryDir = new File(work, "query-index");
+		if(!new File(queryDir, "segments.gen").exists())
+		{
+			USGSDomesticNamesIndex builder = new USGSDomesticNamesIndex(queryDir);
+			builder.addFile(data);
+			builder.close();
+		}
+		final USGSDomesticNamesIndex index = new USGSDomesticNamesIndex(queryDir);
+		IndexReader reader = IndexReader.open(FSDirectory.open(queryDir));
+		final IndexSearcher searcher = new IndexSearcher(reader);
+		try
+		{
+			final String[] words = SyntheticNationalFile.words();
+			for(final double degrees : VIEWPORT_DEGREES)
+			{
+				final List<Search> searches = searches(words, degrees, seed);
+				String size = degrees+" deg";
+				bench.run("buildRangeQuery search "+size, new Bench.Op()
+				{
+					@Override
+					public long run() throws Exception
+					{
+						for(Search s : searches)
+						{
+							Bench.consume(searcher.search(index.buildRangeQuery(s.query, s.nw, s.se), 100));
+						}
+						return searches.size();
+					}
+				});
+				bench.run("buildFilteredQuery search "+size, new Bench.Op()
+				{
+					@Override
+					public long run() throws Exception
+					{
+						for(Search s : searches)
+						{
+							Bench.consume(searcher.search(index.buildFilteredQuery(s.query, s.nw, s.se), 100));
+						}
+						return searches.size();
+					}
+				});
+				bench.run("buildTileQuery search "+size, new Bench.Op()
+				{
+					@Override
+					public long run() throws Exception
+					{
+						for(Search s : searches)
+						{
+							Bench.consume(searcher.search(index.buildTileQuery(s.query, s.se.getLatitude().getDegrees(),
+									s.nw.getLatitude().getDegrees(), s.nw.getLongitude().getDegrees(),
+									s.se.getLongitude().getDegrees()), 100));
+						}
+						return searches.size();
+					}
+				});
+				//new viewports every iteration so the result cache cannot answer them
+				final List<List<Search>> fresh = new ArrayList<List<Search>>(1);
+				fresh.add(searches);
+				bench.run("findResults "+size, new Bench.Setup()
+				{
+					long round;
+
+					@Override
+					public void run()
+					{
+						fresh.set(0, searches(words, degrees, seed + ++round));
+					}
+				}, new Bench.Op()
+				{
+					@Override
+					public long run() throws Exception
+					{
+						for(Search s : fresh.get(0))
+						{
+							Bench.consume(index.findResults(s.query, s.nw, s.se));
+						}
+						return SEARCHES;
+					}
+				});
+				bench.run("findResults repeated "+size, new Bench.Op()
+				{
+					@Override
+					public long run() throws Exception
+					{
+						for(Search s : searches)
+						{
+							Bench.consume(index.findResults(s.query, s.nw, s.se));
+						}
+						return searches.size();
+					}
+				});
+			}
+		}finally
+		{
+			searcher.close();
+			reader.close();
+			index.close();
+		}
+	}
+
+	/**
+	 * A fixed, seeded set of one or two word queries over square viewports
+	 * of the given size inside the synthetic data's extent.
+	 */
+	static List<Search> searches(String[] words, double degrees, long seed)
+	{
+		Random random = new Random(seed);
+		List<Search> searches = new ArrayList<Search>(SEARCHES);
+		for(int i=0; i<SEARCHES; i++)
+		{
+			String query = words[random.nextInt(words.length)];
+			if(random.nextBoolean())
+			{
+				query += " "+words[random.nextInt(words.length)];
+			}
+			double height = Math.min(degrees, SyntheticNationalFile.MAX_LAT - SyntheticNationalFile.MIN_LAT);
+			double width = Math.min(degrees, SyntheticNationalFile.MAX_LON - SyntheticNationalFile.MIN_LON);
+			double south = SyntheticNationalFile.MIN_LAT
+					+ random.nextDouble() * (SyntheticNationalFile.MAX_LAT - SyntheticNationalFile.MIN_LAT - height);
+			double west = SyntheticNationalFile.MIN_LON
+					+ random.nextDouble() * (SyntheticNationalFile.MAX_LON - SyntheticNationalFile.MIN_LON - width);
+			searches.add(new Search(query, Position.fromDegrees(south + height, west, 0),
+					Position.fromDegrees(south, west + width, 0)));
+		}
+		return searches;
+	}
+
+	static class Search
+	{
+		final String query;
+		final Position nw;
+		final Position se;
+
+		Search(String query, Position nw, Position se)
+		{
+			this.query = query;
+			this.nw = nw;
+			this.se = se;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package edu.gwu.text;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queryParser.QueryParser;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+import edu.gwu.bench.Bench;
+import edu.gwu.bench.SyntheticNationalFile;
+
+/**
+ * Highlighting cost per hit for LuceneTextIndex, over seeded synthetic
+ * documents of a few lengths: re-analyzing the text as highlightResults
+ * does, and from term vectors across all the hits at once as searches do.
+ * Lives in the index's package to reach both.
+ */
+public class TextBenchmarks
+{
+	private static final int DOCUMENTS = 50;
+	private static final int[] DOCUMENT_WORDS = {500, 5000, 50000};
+
+	public static void run(Bench bench, File work, long seed) throws Exception
+	{
+		final LuceneTextIndex index = new LuceneTextIndex(new File(work, "text-index"));
+		try
+		{
+			String[] words = SyntheticNationalFile.words();
+			final Query query = new QueryParser(Version.LUCENE_36, "contents", index.analyzer)
+					.parse(words[0]+" "+words[1]);
+			for(int length : DOCUMENT_WORDS)
+			{
+				final List<Field> documents = documents(words, length, seed);
+				bench.run("highlightResults per hit, "+length+" words", new Bench.Op()
+				{
+					@Override
+					public long run() throws Exception
+					{
+						for(Field contents : documents)
+						{
+							Bench.consume(index.highlightResults(query, contents));
+						}
+						return documents.size();
+					}
+				});
+				
+				RAMDirectory dir = new RAMDirectory();
+				IndexWriter w = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_36, index.analyzer));
+				for(Field contents : documents)
+				{
+					Document doc = new Document();
+					doc.add(new Field("contents", contents.stringValue(), Field.Store.YES, Field.Index.ANALYZED,
+							Field.TermVector.WITH_POSITIONS_OFFSETS));
+					w.addDocument(doc);
+				}
+				w.close();
+				final IndexReader reader = IndexReader.open(dir);
+				final TextHighlighter highlighter = new TextHighlighter(index.analyzer);
+				final int[] docs = new int[documents.size()];
+				for(int i=0; i<docs.length; i++)
+				{
+					docs[i] = i;
+				}
+				try
+				{
+					bench.run("term vector highlighting per hit, "+length+" words", new Bench.Op()
+					{
+						@Override
+						public long run() throws Exception
+						{
+							Bench.consume(highlighter.fragments(query, reader, docs, null));
+							return docs.length;
+						}
+					});
+				}finally
+				{
+					reader.close();
+				}
+			}
+		}finally
+		{
+			index.close();
+		}
+	}
+
+	private static List<Field> documents(String[] words, int length, long seed)
+	{
+		Random random = new Random(seed);
+		List<Field> documents = new ArrayList<Field>(DOCUMENTS);
+		StringBuilder text = new StringBuilder(length * 8);
+		for(int d=0; d<DOCUMENTS; d++)
+		{
+			text.setLength(0);
+			for(int i=0; i<length; i++)
+			{
+				text.append(words[random.nextInt(words.length)].toLowerCase());
+				text.append(i % 12 == 11 ? ". " : " ");
+			}
+			documents.add(new Field("contents", text.toString(), Field.Store.YES, Field.Index.ANALYZED));
+		}
+		return documents;
+	}
+}
@@ -0,0 +1,96 @@
+package edu.gwu.search;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.SimpleFSDirectory;
+import org.apache.lucene.util.Constants;
+
+/**
+ * Opens index directories with the storage backend chosen by system
+ * properties:
+ *
+ * index.directory: mmap, nio, simple, ram or auto (the default).  auto picks
+ * MMapDirectory on 64-bit JVMs, otherwise NIOFSDirectory, or
+ * SimpleFSDirectory on Windows where NIO positional reads serialize anyway.
+ * ram preloads the whole index into memory and writes each commit back to
+ * disk (see RAMCopyDirectory).
+ *
+ * index.chunkMB: largest single mapping for mmap, in MB.  Defaults to
+ * Lucene's own choice (1 GB on 64-bit, 256 MB on 32-bit).  Sizes of 2 GB
+ * and more are capped at the largest mapping Java allows.
+ */
+public class DirectoryFactory
+{
+	public static final String TYPE_PROPERTY = "index.directory";
+	public static final String CHUNK_PROPERTY = "index.chunkMB";
+
+	public static Directory open(File path) throws IOException
+	{
+		return open(path, System.getProperty(TYPE_PROPERTY, "auto"), chunkMB());
+	}
+	
+	private static int chunkMB()
+	{
+		String value = System.getProperty(CHUNK_PROPERTY);
+		if(value == null)
+		{
+			return 0;
+		}
+		try
+		{
+			int chunkMB = Integer.parseInt(value.trim());
+			if(chunkMB > 0)
+			{
+				return chunkMB;
+			}
+		}catch(NumberFormatException e)
+		{
+			//reported below
+		}
+		throw new IllegalArgumentException("Bad "+CHUNK_PROPERTY+" "+value+"; expected a whole number of MB greater than 0");
+	}
+
+	/**
+	 * chunkMB of 0 or less keeps MMapDirectory's default.
+	 */
+	public static Directory open(File path, String type, int chunkMB) throws IOException
+	{
+		String t = type.trim().toLowerCase();
+		if(t.equals("auto"))
+		{
+			t = defaultType();
+		}
+		if(t.equals("mmap"))
+		{
+			MMapDirectory dir = new MMapDirectory(path);
+			if(chunkMB > 0)
+			{
+				dir.setMaxChunkSize((int)Math.min((long)chunkMB << 20, Integer.MAX_VALUE));
+			}
+			return dir;
+		}else if(t.equals("nio"))
+		{
+			return new NIOFSDirectory(path);
+		}else if(t.equals("simple"))
+		{
+			return new SimpleFSDirectory(path);
+		}else if(t.equals("ram"))
+		{
+			return RAMCopyDirectory.load(path);
+		}
+		throw new IllegalArgumentException("Unknown "+TYPE_PROPERTY+" "+type+"; expected mmap, nio, simple, ram or auto");
+	}
+
+	static String defaultType()
+	{
+		if(Constants.JRE_IS_64BIT && MMapDirectory.UNMAP_SUPPORTED)
+		{
+			return "mmap";
+		}
+		return Constants.WINDOWS ? "simple" : "nio";
+	}
+}
@@ -0,0 +1,288 @@
+package edu.gwu.search;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.AlreadyClosedException;
+
+/**
+ * Query phase latencies and ingest counters for one index, registered as
+ * an MXBean under edu.gwu:type=...,name=... once register() is called.
+ * Everything is recorded with atomic counters and histograms, so it is left
+ * on all the time.
+ */
+public class IndexMetrics implements IndexMetricsMXBean
+{
+	public enum Phase
+	{
+		PARSE, REWRITE, COLLECT, FETCH, HIGHLIGHT, EXPLAIN
+	}
+
+	private final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+	private final LatencyHistogram flushes = new LatencyHistogram();
+	private final LatencyHistogram merges = new LatencyHistogram();
+	private final AtomicLong rowsIngested = new AtomicLong();
+	private final AtomicLong ingestRows = new AtomicLong();
+	private volatile long ingestStart;
+	private volatile long ingestEnd;
+	private final AtomicLong reopens = new AtomicLong();
+	private final List<IndexWriter> writers = new CopyOnWriteArrayList<IndexWriter>();
+	private final AtomicLong slowQueries = new AtomicLong();
+	private volatile long slowNanos;
+	private volatile String type = "index";
+	private ObjectName registered;
+
+	public IndexMetrics()
+	{
+		for(int i=0; i<phases.length; i++)
+		{
+			phases[i] = new LatencyHistogram();
+		}
+		setSlowQueryThresholdMillis(SlowQueryLog.defaultThresholdMillis());
+	}
+
+	/**
+	 * Registers with the platform MBeanServer, replacing anything already
+	 * registered under the same name (another instance over the same index).
+	 * Failure to register is reported but does not stop recording.
+	 */
+	public synchronized void register(String type, String name)
+	{
+		this.type = type;
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName("edu.gwu:type="+type+",name="+ObjectName.quote(name));
+			if(server.isRegistered(objectName))
+			{
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(this, objectName);
+			registered = objectName;
+		}catch(JMException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	public synchronized void unregister()
+	{
+		if(registered == null)
+		{
+			return;
+		}
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if(server.isRegistered(registered))
+			{
+				server.unregisterMBean(registered);
+			}
+		}catch(JMException e)
+		{
+			e.printStackTrace();
+		}
+		registered = null;
+	}
+
+	/**
+	 * A timer for one query's phases, recorded here when it finishes.
+	 */
+	public PhaseTimer timer()
+	{
+		return new PhaseTimer(this);
+	}
+
+	void record(Phase phase, long nanos)
+	{
+		phases[phase.ordinal()].record(nanos);
+	}
+
+	//a query over the threshold goes to the slow query log
+	void finished(PhaseTimer timer, IndexSearcher searcher, long nanos)
+	{
+		if(nanos >= slowNanos)
+		{
+			slowQueries.incrementAndGet();
+			try
+			{
+				SlowQueryLog.log(type, timer, searcher, nanos);
+			}catch(RuntimeException e)
+			{
+				//never fail the query over its log entry
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public void ingestStarted()
+	{
+		ingestRows.set(0);
+		ingestEnd = 0;
+		ingestStart = System.nanoTime();
+	}
+
+	public void rowsIngested(long rows)
+	{
+		rowsIngested.addAndGet(rows);
+		ingestRows.addAndGet(rows);
+	}
+
+	public void ingestFinished()
+	{
+		ingestEnd = System.nanoTime();
+	}
+
+	void writerOpened(IndexWriter writer)
+	{
+		writers.add(writer);
+	}
+
+	void writerClosed(IndexWriter writer)
+	{
+		writers.remove(writer);
+	}
+
+	void flushed(long nanos)
+	{
+		flushes.record(nanos);
+	}
+
+	void merged(long nanos)
+	{
+		merges.record(nanos);
+	}
+
+	void searcherReopened()
+	{
+		reopens.incrementAndGet();
+	}
+
+	@Override
+	public PhaseStats getParse()
+	{
+		return phases[Phase.PARSE.ordinal()].snapshot();
+	}
+
+	@Override
+	public PhaseStats getRewrite()
+	{
+		return phases[Phase.REWRITE.ordinal()].snapshot();
+	}
+
+	@Override
+	public PhaseStats getCollect()
+	{
+		return phases[Phase.COLLECT.ordinal()].snapshot();
+	}
+
+	@Override
+	public PhaseStats getStoredFieldFetch()
+	{
+		return phases[Phase.FETCH.ordinal()].snapshot();
+	}
+
+	@Override
+	public PhaseStats getHighlight()
+	{
+		return phases[Phase.HIGHLIGHT.ordinal()].snapshot();
+	}
+
+	@Override
+	public PhaseStats getExplain()
+	{
+		return phases[Phase.EXPLAIN.ordinal()].snapshot();
+	}
+
+	@Override
+	public long getRowsIngested()
+	{
+		return rowsIngested.get();
+	}
+
+	@Override
+	public double getIngestRowsPerSecond()
+	{
+		long start = ingestStart;
+		if(start == 0)
+		{
+			return 0;
+		}
+		long end = ingestEnd;
+		long nanos = (end == 0 ? System.nanoTime() : end) - start;
+		return nanos <= 0 ? 0 : ingestRows.get() * 1e9 / nanos;
+	}
+
+	@Override
+	public int getDocumentsBuffered()
+	{
+		int buffered = 0;
+		for(IndexWriter w : writers)
+		{
+			try
+			{
+				buffered += w.numRamDocs();
+			}catch(AlreadyClosedException e)
+			{
+				//closed since the list was read
+			}
+		}
+		return buffered;
+	}
+
+	@Override
+	public PhaseStats getFlushes()
+	{
+		return flushes.snapshot();
+	}
+
+	@Override
+	public PhaseStats getMerges()
+	{
+		return merges.snapshot();
+	}
+
+	@Override
+	public long getSearcherReopens()
+	{
+		return reopens.get();
+	}
+
+	@Override
+	public long getSlowQueryThresholdMillis()
+	{
+		long nanos = slowNanos;
+		return nanos == Long.MAX_VALUE ? -1 : nanos / 1000000;
+	}
+
+	@Override
+	public void setSlowQueryThresholdMillis(long millis)
+	{
+		slowNanos = millis < 0 ? Long.MAX_VALUE : millis * 1000000;
+	}
+
+	@Override
+	public long getSlowQueries()
+	{
+		return slowQueries.get();
+	}
+
+	@Override
+	public void resetStatistics()
+	{
+		for(LatencyHistogram h : phases)
+		{
+			h.reset();
+		}
+		flushes.reset();
+		merges.reset();
+	}
+}
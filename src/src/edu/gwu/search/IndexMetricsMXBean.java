@@ -0,0 +1,48 @@
+package edu.gwu.search;
+
+/**
+ * What IndexMetrics shows over JMX.  Latencies are in microseconds; query
+ * phases are timed once per query, summed over its hits where a phase runs
+ * per hit.
+ */
+public interface IndexMetricsMXBean
+{
+	PhaseStats getParse();
+
+	PhaseStats getRewrite();
+
+	PhaseStats getCollect();
+
+	PhaseStats getStoredFieldFetch();
+
+	PhaseStats getHighlight();
+
+	PhaseStats getExplain();
+
+	long getRowsIngested();
+
+	/**
+	 * For the ingest in progress, or the last one if none is running.
+	 */
+	double getIngestRowsPerSecond();
+
+	int getDocumentsBuffered();
+
+	PhaseStats getFlushes();
+
+	PhaseStats getMerges();
+
+	long getSearcherReopens();
+
+	/**
+	 * Queries at least this slow are written to the SlowQueryLog; -1 when
+	 * the log is off.
+	 */
+	long getSlowQueryThresholdMillis();
+
+	void setSlowQueryThresholdMillis(long millis);
+
+	long getSlowQueries();
+
+	void resetStatistics();
+}
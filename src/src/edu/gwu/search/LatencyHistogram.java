@@ -0,0 +1,111 @@
+package edu.gwu.search;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram in microseconds.  Buckets are logarithmic with
+ * four sub-buckets per power of two, so a percentile is off by at most a
+ * quarter of its value; recording is a few atomic increments and never
+ * allocates, so it can stay on under load.
+ */
+public class LatencyHistogram
+{
+	//four sub-buckets for each of the 40 powers of two up to about 12 days
+	private static final int BUCKETS = 160;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalMicros = new AtomicLong();
+	private final AtomicLong maxMicros = new AtomicLong();
+
+	public void record(long nanos)
+	{
+		long micros = Math.max(0, nanos / 1000);
+		counts.incrementAndGet(bucket(micros));
+		count.incrementAndGet();
+		totalMicros.addAndGet(micros);
+		long max = maxMicros.get();
+		while(micros > max && !maxMicros.compareAndSet(max, micros))
+		{
+			max = maxMicros.get();
+		}
+	}
+
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	/**
+	 * Count, mean, p50, p95, p99 and max as of now.  Updates that race with
+	 * the snapshot may be partly included.
+	 */
+	public PhaseStats snapshot()
+	{
+		long[] copy = new long[BUCKETS];
+		long n = 0;
+		for(int i=0; i<BUCKETS; i++)
+		{
+			copy[i] = counts.get(i);
+			n += copy[i];
+		}
+		long max = maxMicros.get();
+		double mean = n == 0 ? 0 : (double)totalMicros.get() / n;
+		return new PhaseStats(n, mean, percentile(copy, n, 0.50, max),
+				percentile(copy, n, 0.95, max), percentile(copy, n, 0.99, max), max);
+	}
+
+	public void reset()
+	{
+		for(int i=0; i<BUCKETS; i++)
+		{
+			counts.set(i, 0);
+		}
+		count.set(0);
+		totalMicros.set(0);
+		maxMicros.set(0);
+	}
+
+	//the upper bound of the bucket holding the p-th value, capped at the max seen
+	private static long percentile(long[] counts, long n, double p, long max)
+	{
+		if(n == 0)
+		{
+			return 0;
+		}
+		long rank = (long)Math.ceil(p * n);
+		long seen = 0;
+		for(int i=0; i<counts.length; i++)
+		{
+			seen += counts[i];
+			if(seen >= rank)
+			{
+				return Math.min(max, upperBound(i));
+			}
+		}
+		return max;
+	}
+
+	static int bucket(long micros)
+	{
+		if(micros < 4)
+		{
+			return (int)micros;
+		}
+		int octave = 63 - Long.numberOfLeadingZeros(micros);
+		int sub = (int)(micros >>> (octave - 2)) & 3;
+		return Math.min(BUCKETS - 1, (octave - 1) * 4 + sub);
+	}
+
+	static long upperBound(int bucket)
+	{
+		if(bucket < 4)
+		{
+			return bucket;
+		}
+		int shift = bucket / 4 - 1;
+		long lower = (long)(4 + bucket % 4) << shift;
+		return lower + (1L << shift) - 1;
+	}
+}
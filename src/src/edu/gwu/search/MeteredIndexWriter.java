@@ -0,0 +1,99 @@
+package edu.gwu.search;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.store.Directory;
+
+/**
+ * IndexWriter that reports its flushes, merges and buffered documents to an
+ * IndexMetrics.  A default ConcurrentMergeScheduler in the config is
+ * replaced by one that times each merge, with the same thread limits.
+ */
+public class MeteredIndexWriter extends IndexWriter
+{
+	private final IndexMetrics metrics;
+	//guarded by the writer's lock, which IndexWriter holds across a flush
+	private long flushStart;
+
+	public MeteredIndexWriter(Directory d, IndexWriterConfig config, IndexMetrics metrics) throws IOException
+	{
+		super(d, timeMerges(config, metrics));
+		this.metrics = metrics;
+		metrics.writerOpened(this);
+	}
+
+	private static IndexWriterConfig timeMerges(IndexWriterConfig config, IndexMetrics metrics)
+	{
+		if(config.getMergeScheduler().getClass() == ConcurrentMergeScheduler.class)
+		{
+			ConcurrentMergeScheduler current = (ConcurrentMergeScheduler)config.getMergeScheduler();
+			TimedMergeScheduler timed = new TimedMergeScheduler(metrics);
+			timed.setMaxMergeCount(current.getMaxMergeCount());
+			timed.setMaxThreadCount(current.getMaxThreadCount());
+			config.setMergeScheduler(timed);
+		}
+		return config;
+	}
+
+	@Override
+	protected void doBeforeFlush() throws IOException
+	{
+		flushStart = System.nanoTime();
+	}
+
+	@Override
+	protected void doAfterFlush() throws IOException
+	{
+		if(flushStart != 0)
+		{
+			metrics.flushed(System.nanoTime() - flushStart);
+			flushStart = 0;
+		}
+	}
+
+	@Override
+	public void close(boolean waitForMerges) throws IOException
+	{
+		try
+		{
+			super.close(waitForMerges);
+		}finally
+		{
+			metrics.writerClosed(this);
+		}
+	}
+
+	@Override
+	public void rollback() throws IOException
+	{
+		try
+		{
+			super.rollback();
+		}finally
+		{
+			metrics.writerClosed(this);
+		}
+	}
+
+	private static class TimedMergeScheduler extends ConcurrentMergeScheduler
+	{
+		private final IndexMetrics metrics;
+
+		TimedMergeScheduler(IndexMetrics metrics)
+		{
+			this.metrics = metrics;
+		}
+
+		@Override
+		protected void doMerge(MergePolicy.OneMerge merge) throws IOException
+		{
+			long start = System.nanoTime();
+			super.doMerge(merge);
+			metrics.merged(System.nanoTime() - start);
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package edu.gwu.search;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A LatencyHistogram snapshot, in microseconds.  Shown by JMX consoles as
+ * one composite attribute per phase.
+ */
+public class PhaseStats
+{
+	private final long count;
+	private final double meanMicros;
+	private final long p50Micros;
+	private final long p95Micros;
+	private final long p99Micros;
+	private final long maxMicros;
+
+	@ConstructorProperties({"count", "meanMicros", "p50Micros", "p95Micros", "p99Micros", "maxMicros"})
+	public PhaseStats(long count, double meanMicros, long p50Micros, long p95Micros, long p99Micros, long maxMicros)
+	{
+		this.count = count;
+		this.meanMicros = meanMicros;
+		this.p50Micros = p50Micros;
+		this.p95Micros = p95Micros;
+		this.p99Micros = p99Micros;
+		this.maxMicros = maxMicros;
+	}
+
+	public long getCount()
+	{
+		return count;
+	}
+
+	public double getMeanMicros()
+	{
+		return meanMicros;
+	}
+
+	public long getP50Micros()
+	{
+		return p50Micros;
+	}
+
+	public long getP95Micros()
+	{
+		return p95Micros;
+	}
+
+	public long getP99Micros()
+	{
+		return p99Micros;
+	}
+
+	public long getMaxMicros()
+	{
+		return maxMicros;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("n=%d mean=%.0fus p50=%dus p95=%dus p99=%dus max=%dus",
+				count, meanMicros, p50Micros, p95Micros, p99Micros, maxMicros);
+	}
+}
@@ -0,0 +1,146 @@
+package edu.gwu.search;
+
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+
+import edu.gwu.search.IndexMetrics.Phase;
+
+/**
+ * Adds up the time one query spends in each phase and records the totals
+ * in its IndexMetrics when finished.  Also holds what the slow query log
+ * needs to describe the query; setting it only stores references, and the
+ * entry is built only when the query turns out to be slow.  Not thread
+ * safe; a sharded search adds its time from the thread that started it.
+ */
+public class PhaseTimer
+{
+	private final IndexMetrics metrics;
+	private final long started = System.nanoTime();
+	private final long[] nanos = new long[Phase.values().length];
+	private final boolean[] timed = new boolean[nanos.length];
+	private String text;
+	private Query parsed;
+	private Query rewritten;
+	private double[] box;
+	private int totalHits = -1;
+	private int returned;
+	private int topDoc = -1;
+	private boolean partial;
+
+	PhaseTimer(IndexMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Adds the time since startNanos (from System.nanoTime()) to the phase.
+	 */
+	public void add(Phase phase, long startNanos)
+	{
+		nanos[phase.ordinal()] += System.nanoTime() - startNanos;
+		timed[phase.ordinal()] = true;
+	}
+
+	public long getNanos(Phase phase)
+	{
+		return nanos[phase.ordinal()];
+	}
+
+	boolean isTimed(Phase phase)
+	{
+		return timed[phase.ordinal()];
+	}
+
+	public void setQuery(String text, Query parsed)
+	{
+		this.text = text;
+		this.parsed = parsed;
+	}
+
+	public void setRewritten(Query rewritten)
+	{
+		this.rewritten = rewritten;
+	}
+
+	/**
+	 * {minLat, maxLat, minLon, maxLon}
+	 */
+	public void setBox(double[] box)
+	{
+		this.box = box;
+	}
+
+	/**
+	 * top may be null when the query collects counts rather than hits.
+	 */
+	public void setHits(int totalHits, ScoreDoc[] top, boolean partial)
+	{
+		this.totalHits = totalHits;
+		this.returned = top == null ? 0 : top.length;
+		this.topDoc = top == null || top.length == 0 ? -1 : top[0].doc;
+		this.partial = partial;
+	}
+
+	String getText()
+	{
+		return text;
+	}
+
+	Query getParsed()
+	{
+		return parsed;
+	}
+
+	Query getRewritten()
+	{
+		return rewritten;
+	}
+
+	double[] getBox()
+	{
+		return box;
+	}
+
+	int getTotalHits()
+	{
+		return totalHits;
+	}
+
+	int getReturned()
+	{
+		return returned;
+	}
+
+	int getTopDoc()
+	{
+		return topDoc;
+	}
+
+	boolean isPartial()
+	{
+		return partial;
+	}
+
+	public void finish()
+	{
+		finish(null);
+	}
+
+	/**
+	 * Records every phase that was timed, and logs the query if it was slow.
+	 * Call before releasing the searcher the query ran on, so the top hit can
+	 * be explained.
+	 */
+	public void finish(IndexSearcher searcher)
+	{
+		for(Phase phase : Phase.values())
+		{
+			if(timed[phase.ordinal()])
+			{
+				metrics.record(phase, nanos[phase.ordinal()]);
+			}
+		}
+		metrics.finished(this, searcher, System.nanoTime() - started);
+	}
+}
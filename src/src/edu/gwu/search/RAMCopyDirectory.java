@@ -0,0 +1,85 @@
+package edu.gwu.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.RAMDirectory;
+
+/**
+ * An index held entirely in memory, loaded from disk when opened.  Searches
+ * never touch the file system.  IndexWriter syncs every file of a commit
+ * before the commit counts, so sync() is where each file is copied back to
+ * disk; deletes are mirrored as well, and the on-disk copy always holds the
+ * last commit.
+ */
+public class RAMCopyDirectory extends RAMDirectory
+{
+	private final Directory disk;
+
+	private RAMCopyDirectory(Directory disk) throws IOException
+	{
+		super(disk);
+		this.disk = disk;
+	}
+
+	public static RAMCopyDirectory load(File path) throws IOException
+	{
+		if(!path.exists() && !path.mkdirs())
+		{
+			throw new IOException("Cannot create index directory "+path);
+		}
+		Directory disk = new NIOFSDirectory(path);
+		try
+		{
+			return new RAMCopyDirectory(disk);
+		}catch(IOException e)
+		{
+			disk.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void sync(Collection<String> names) throws IOException
+	{
+		for(String name : names)
+		{
+			copy(disk, name, name);
+		}
+		disk.sync(names);
+	}
+
+	@Override
+	@Deprecated
+	public void sync(String name) throws IOException
+	{
+		sync(Collections.singleton(name));
+	}
+
+	@Override
+	public void deleteFile(String name) throws IOException
+	{
+		super.deleteFile(name);
+		if(disk.fileExists(name))
+		{
+			disk.deleteFile(name);
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		super.close();
+		try
+		{
+			disk.close();
+		}catch(IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package edu.gwu.search;
+
+import java.util.List;
+
+import org.apache.lucene.search.ScoreDoc;
+
+/**
+ * One page of search results plus the cursor for the page after it.
+ * Fetching the next page runs IndexSearcher.searchAfter from the cursor, so
+ * memory stays constant no matter how deep the caller pages.
+ */
+public class ResultPage<T>
+{
+	/**
+	 * Where a page ended.  Callers should treat it as opaque and only pass it
+	 * back to the index that produced it.  Paging across an index refresh is
+	 * best effort: the cursor keeps its place by score and doc ID.
+	 */
+	public static class Cursor
+	{
+		private final ScoreDoc after;
+		private final int offset;
+		private final Object state;
+
+		public Cursor(ScoreDoc after, int offset, Object state)
+		{
+			this.after = after;
+			this.offset = offset;
+			this.state = state;
+		}
+
+		public ScoreDoc getAfter()
+		{
+			return after;
+		}
+
+		/**
+		 * Number of results on this and all earlier pages.
+		 */
+		public int getOffset()
+		{
+			return offset;
+		}
+
+		/**
+		 * Whatever the producing index needs to repeat the search.
+		 */
+		public Object getState()
+		{
+			return state;
+		}
+	}
+
+	private final List<T> results;
+	private final Cursor next;
+
+	public ResultPage(List<T> results, Cursor next)
+	{
+		this.results = results;
+		this.next = next;
+	}
+
+	public List<T> getResults()
+	{
+		return results;
+	}
+
+	/**
+	 * Cursor for the following page, or null if this was the last one.
+	 */
+	public Cursor getNext()
+	{
+		return next;
+	}
+}
@@ -0,0 +1,15 @@
+package edu.gwu.search;
+
+/**
+ * Thrown out of a search whose SearchTicket was cancelled because a newer
+ * search replaced it.  Whatever the search had found is discarded.
+ */
+public class SearchCancelledException extends RuntimeException
+{
+	private static final long serialVersionUID = 1L;
+
+	public SearchCancelledException()
+	{
+		super("Search superseded");
+	}
+}
@@ -0,0 +1,151 @@
+package edu.gwu.search;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs searches one at a time, newest first and only the newest.
+ *
+ * submit() replaces any search still waiting to start and cancels the one
+ * that is running, so a burst of keystrokes or camera moves produces a
+ * single search once input has been quiet for the settle time, and the last
+ * request is never dropped.  Each search runs under a SearchTicket with the
+ * scheduler's time budget: past the deadline the search returns what it has
+ * collected, and a superseded search ends at its next check with
+ * SearchCancelledException, which the scheduler swallows.
+ */
+public class SearchScheduler
+{
+	/**
+	 * A unit of work; pass the ticket to the index and call
+	 * ticket.checkpoint() before publishing results.
+	 */
+	public interface Search
+	{
+		void run(SearchTicket ticket) throws Exception;
+	}
+
+	private final long settleMillis;
+	private final long budgetMillis;
+	private final Thread worker;
+	//guarded by this
+	private Search pending;
+	private long submittedAt;
+	private long pendingSettle;
+	private SearchTicket running;
+	private boolean shutdown;
+
+	/**
+	 * settleMillis is how long input must be quiet before the newest search
+	 * starts; budgetMillis is the time each search may spend collecting hits
+	 * (0 for no limit).
+	 */
+	public SearchScheduler(String name, long settleMillis, long budgetMillis)
+	{
+		this.settleMillis = settleMillis;
+		this.budgetMillis = budgetMillis;
+		worker = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				work();
+			}
+		}, name);
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Schedules the search in place of whatever was submitted before it.
+	 */
+	public void submit(Search search)
+	{
+		submit(search, settleMillis);
+	}
+	
+	/**
+	 * submit() with its own settle time, e.g. a longer one for camera moves
+	 * than for keystrokes.
+	 */
+	public synchronized void submit(Search search, long settleMillis)
+	{
+		pending = search;
+		submittedAt = System.nanoTime();
+		pendingSettle = TimeUnit.MILLISECONDS.toNanos(settleMillis);
+		if(running != null)
+		{
+			running.cancel();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Drops any waiting search, cancels the running one and stops the worker.
+	 */
+	public synchronized void shutdown()
+	{
+		shutdown = true;
+		pending = null;
+		if(running != null)
+		{
+			running.cancel();
+		}
+		notifyAll();
+	}
+
+	private void work()
+	{
+		while(true)
+		{
+			Search search;
+			SearchTicket ticket;
+			synchronized(this)
+			{
+				try
+				{
+					while(!shutdown)
+					{
+						if(pending == null)
+						{
+							wait();
+							continue;
+						}
+						long remaining = submittedAt + pendingSettle - System.nanoTime();
+						if(remaining <= 0)
+						{
+							break;
+						}
+						TimeUnit.NANOSECONDS.timedWait(this, remaining);
+					}
+				}catch(InterruptedException e)
+				{
+					return;
+				}
+				if(shutdown)
+				{
+					return;
+				}
+				search = pending;
+				pending = null;
+				ticket = new SearchTicket(budgetMillis);
+				running = ticket;
+			}
+			try
+			{
+				search.run(ticket);
+			}catch(SearchCancelledException e)
+			{
+				//superseded by a newer search
+			}catch(Exception e)
+			{
+				e.printStackTrace();
+			}finally
+			{
+				synchronized(this)
+				{
+					running = null;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package edu.gwu.search;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+
+/**
+ * Control over one search run: a newer search can cancel it, and it has a
+ * deadline for collecting hits.  Collectors run through search() check both
+ * every few hundred hits and at every segment.  A cancelled search throws
+ * SearchCancelledException.  One that runs out of time stops collecting but
+ * keeps the hits found so far, and isPartial() reports it; partial results
+ * must not be cached or paged from.
+ */
+public class SearchTicket
+{
+	private static final int CHECK_INTERVAL = 256;
+	private static final OutOfTime OUT_OF_TIME = new OutOfTime();
+
+	private final long deadline;
+	private volatile boolean cancelled;
+	private volatile boolean partial;
+
+	/**
+	 * budgetMillis of 0 or less means no deadline.
+	 */
+	public SearchTicket(long budgetMillis)
+	{
+		deadline = budgetMillis > 0 ? System.nanoTime() + budgetMillis * 1000000L : Long.MAX_VALUE;
+	}
+
+	public void cancel()
+	{
+		cancelled = true;
+	}
+
+	public boolean isCancelled()
+	{
+		return cancelled;
+	}
+
+	/**
+	 * True once any search under this ticket stopped at the deadline.
+	 */
+	public boolean isPartial()
+	{
+		return partial;
+	}
+
+	/**
+	 * Throws SearchCancelledException if cancelled; for use between phases
+	 * of a search and before publishing its results.
+	 */
+	public void checkpoint()
+	{
+		if(cancelled)
+		{
+			throw new SearchCancelledException();
+		}
+	}
+
+	public static void search(SearchTicket ticket, IndexSearcher searcher, Query query, Collector collector) throws IOException
+	{
+		search(ticket, searcher, searcher.createNormalizedWeight(query), collector);
+	}
+
+	/**
+	 * Runs the search, under the ticket if there is one.  On return the
+	 * collector holds every hit, or the hits found before the deadline.
+	 */
+	public static void search(SearchTicket ticket, IndexSearcher searcher, Weight weight, Collector collector) throws IOException
+	{
+		if(ticket == null)
+		{
+			searcher.search(weight, null, collector);
+			return;
+		}
+		ticket.checkpoint();
+		try
+		{
+			searcher.search(weight, null, ticket.new TicketCollector(collector));
+		}catch(OutOfTime e)
+		{
+			ticket.partial = true;
+		}
+	}
+
+	private void check()
+	{
+		checkpoint();
+		if(System.nanoTime() > deadline)
+		{
+			throw OUT_OF_TIME;
+		}
+	}
+
+	private static class OutOfTime extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public synchronized Throwable fillInStackTrace()
+		{
+			return this;
+		}
+	}
+
+	private class TicketCollector extends Collector
+	{
+		private final Collector in;
+		private int count;
+
+		TicketCollector(Collector in)
+		{
+			this.in = in;
+		}
+
+		@Override
+		public void setScorer(Scorer scorer) throws IOException
+		{
+			in.setScorer(scorer);
+		}
+
+		@Override
+		public void collect(int doc) throws IOException
+		{
+			if(++count == CHECK_INTERVAL)
+			{
+				count = 0;
+				check();
+			}
+			in.collect(doc);
+		}
+
+		@Override
+		public void setNextReader(IndexReader reader, int docBase) throws IOException
+		{
+			check();
+			in.setNextReader(reader, docBase);
+		}
+
+		@Override
+		public boolean acceptsDocsOutOfOrder()
+		{
+			return in.acceptsDocsOutOfOrder();
+		}
+	}
+}
@@ -0,0 +1,451 @@
+package edu.gwu.search;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.store.Directory;
+
+/**
+ * One long-lived, reference counted IndexSearcher per index directory.
+ * Every search acquires the current searcher and releases it when done;
+ * refresh() swaps in a reopened searcher (IndexReader.openIfChanged) after
+ * a commit, and the old reader is closed once its last user releases it.
+ *
+ * An index may be split over several shard directories.  acquire() then
+ * returns a searcher over a MultiReader of every shard, so doc IDs and
+ * per-reader caches work as for a single index, and search() fans a query
+ * out over the shards in parallel and merges the top hits.
+ *
+ * The underlying SearcherManagers are created lazily because the index may
+ * not exist yet when the UI starts.  Safe to use from any number of threads.
+ * Rewrite and collect times and reopens are recorded in getMetrics().
+ */
+public class SharedSearcher implements Closeable
+{
+	/**
+	 * Decides from a shard's reader whether a search can skip it.
+	 */
+	public interface ShardFilter
+	{
+		boolean accept(IndexReader shard) throws IOException;
+	}
+
+	private final Directory[] directories;
+	private volatile SearcherManager[] managers;
+	//writers and crawls call refresh() concurrently; it runs one call at a time under refreshLock
+	private final Object refreshLock = new Object();
+	private final AtomicLong generation = new AtomicLong();
+	//current view over all shards, holding one reference; guarded by this
+	private IndexSearcher combined;
+	private final ExecutorService executor;
+	private final IndexMetrics metrics;
+
+	public SharedSearcher(Directory directory)
+	{
+		this(new Directory[]{directory});
+	}
+
+	public SharedSearcher(Directory[] shards)
+	{
+		this(shards, new IndexMetrics());
+	}
+
+	public SharedSearcher(Directory[] shards, IndexMetrics metrics)
+	{
+		this.directories = shards;
+		this.metrics = metrics;
+		if(shards.length > 1)
+		{
+			executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r, "shard-search");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}else
+		{
+			executor = null;
+		}
+	}
+
+	/**
+	 * Returns the current searcher; every call must be paired with release().
+	 */
+	public IndexSearcher acquire() throws IOException
+	{
+		SearcherManager[] m = managers();
+		if(m.length == 1)
+		{
+			return m[0].acquire();
+		}
+		synchronized(this)
+		{
+			if(combined == null)
+			{
+				combined = combine(m);
+			}
+			combined.getIndexReader().incRef();
+			return combined;
+		}
+	}
+
+	public void release(IndexSearcher searcher) throws IOException
+	{
+		SearcherManager[] m = managers;
+		if(m != null && searcher != null)
+		{
+			if(m.length == 1)
+			{
+				m[0].release(searcher);
+			}else
+			{
+				searcher.getIndexReader().decRef();
+			}
+		}
+	}
+
+	/**
+	 * Picks up changes committed since the current searcher was opened.
+	 * Cheap when nothing changed.  Returns true if a new searcher was opened.
+	 * Calls wait for each other, so once refresh() returns, searches see
+	 * everything committed before it was called.
+	 */
+	public boolean refresh() throws IOException
+	{
+		synchronized(refreshLock)
+		{
+			SearcherManager[] m = managers;
+			if(m == null)
+			{
+				//first commit to a new index; open on the next acquire
+				generation.incrementAndGet();
+				return false;
+			}
+			boolean changed = false;
+			for(SearcherManager manager : m)
+			{
+				changed |= refresh(manager);
+			}
+			if(changed)
+			{
+				generation.incrementAndGet();
+				metrics.searcherReopened();
+				if(m.length > 1)
+				{
+					synchronized(this)
+					{
+						//rebuilt from the refreshed shards on the next acquire
+						if(combined != null)
+						{
+							combined.getIndexReader().decRef();
+							combined = null;
+						}
+					}
+				}
+			}
+			return changed;
+		}
+	}
+
+	/**
+	 * maybeRefresh() returns true whenever it got the manager's lock, changed
+	 * or not, so compare the searchers before and after.  Only refresh()
+	 * refreshes, under refreshLock, so that lock is always free here.
+	 */
+	private static boolean refresh(SearcherManager manager) throws IOException
+	{
+		IndexSearcher before = manager.acquire();
+		try
+		{
+			manager.maybeRefresh();
+			IndexSearcher after = manager.acquire();
+			manager.release(after);
+			return after != before;
+		}finally
+		{
+			manager.release(before);
+		}
+	}
+
+	/**
+	 * Incremented every time refresh() changes what searches see.  Useful for
+	 * invalidating anything derived from an older searcher.
+	 */
+	public long getGeneration()
+	{
+		return generation.get();
+	}
+
+	public IndexMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	public Directory getDirectory()
+	{
+		return directories[0];
+	}
+
+	public Directory[] getDirectories()
+	{
+		return directories;
+	}
+
+	public int getShardCount()
+	{
+		return directories.length;
+	}
+
+	/**
+	 * The per-shard readers under an acquired searcher, in doc ID order.
+	 */
+	public IndexReader[] shards(IndexSearcher searcher)
+	{
+		if(directories.length == 1)
+		{
+			return new IndexReader[]{searcher.getIndexReader()};
+		}
+		return searcher.getIndexReader().getSequentialSubReaders();
+	}
+
+	/**
+	 * Top n hits after the given hit (null for the first page) for an
+	 * acquired searcher.  With shards, each shard that passes the filter is
+	 * searched on its own thread using a weight normalized over the whole
+	 * index, so scores and doc IDs match an unsharded search.  With a ticket,
+	 * every shard stops at its deadline and a cancel stops them all.
+	 */
+	public TopDocs search(IndexSearcher searcher, Query query, ShardFilter filter, ScoreDoc after, final int n,
+			final SearchTicket ticket) throws IOException
+	{
+		PhaseTimer timer = metrics.timer();
+		TopDocs hits = search(searcher, query, filter, after, n, ticket, timer);
+		timer.finish(searcher);
+		return hits;
+	}
+
+	/**
+	 * search() adding its rewrite and collect times to a query's timer, for
+	 * the caller to finish.
+	 */
+	public TopDocs search(IndexSearcher searcher, Query query, ShardFilter filter, ScoreDoc after, int n,
+			SearchTicket ticket, PhaseTimer timer) throws IOException
+	{
+		long start = System.nanoTime();
+		Query rewritten = searcher.rewrite(query);
+		timer.add(IndexMetrics.Phase.REWRITE, start);
+		timer.setRewritten(rewritten);
+		start = System.nanoTime();
+		TopDocs hits = collect(searcher, rewritten, filter, after, n, ticket);
+		timer.add(IndexMetrics.Phase.COLLECT, start);
+		timer.setHits(hits.totalHits, hits.scoreDocs, ticket != null && ticket.isPartial());
+		return hits;
+	}
+
+	private TopDocs collect(IndexSearcher searcher, Query query, ShardFilter filter, ScoreDoc after, final int n,
+			final SearchTicket ticket) throws IOException
+	{
+		IndexReader[] shards = shards(searcher);
+		final Weight weight = searcher.createNormalizedWeight(query);
+		if(shards.length == 1)
+		{
+			return collect(searcher, weight, after, Math.max(1, Math.min(n, searcher.maxDoc())), ticket);
+		}
+		List<Future<TopDocs>> futures = new ArrayList<Future<TopDocs>>(shards.length);
+		int docBase = 0;
+		for(int i=0; i<shards.length; i++)
+		{
+			final IndexReader shard = shards[i];
+			final int base = docBase;
+			docBase += shard.maxDoc();
+			if(filter != null && !filter.accept(shard))
+			{
+				continue;
+			}
+			final ScoreDoc shardAfter = after == null ? null : new ScoreDoc(after.doc - base, after.score);
+			futures.add(executor.submit(new Callable<TopDocs>()
+			{
+				@Override
+				public TopDocs call() throws IOException
+				{
+					TopDocs hits = collect(new IndexSearcher(shard), weight, shardAfter,
+							Math.max(1, Math.min(n, shard.maxDoc())), ticket);
+					for(ScoreDoc hit : hits.scoreDocs)
+					{
+						hit.doc += base;
+					}
+					return hits;
+				}
+			}));
+		}
+		if(futures.isEmpty())
+		{
+			return new TopDocs(0, new ScoreDoc[0], Float.NaN);
+		}
+		TopDocs[] shardHits = new TopDocs[futures.size()];
+		for(int i=0; i<shardHits.length; i++)
+		{
+			shardHits[i] = get(futures.get(i));
+		}
+		return TopDocs.merge(null, n, shardHits);
+	}
+
+	private static TopDocs collect(IndexSearcher searcher, Weight weight, ScoreDoc after, int n, SearchTicket ticket)
+			throws IOException
+	{
+		TopScoreDocCollector collector = TopScoreDocCollector.create(n, after, !weight.scoresDocsOutOfOrder());
+		SearchTicket.search(ticket, searcher, weight, collector);
+		return collector.topDocs();
+	}
+
+	private static TopDocs get(Future<TopDocs> future) throws IOException
+	{
+		try
+		{
+			return future.get();
+		}catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while searching shards");
+		}catch(ExecutionException e)
+		{
+			if(e.getCause() instanceof IOException)
+			{
+				throw (IOException)e.getCause();
+			}else if(e.getCause() instanceof RuntimeException)
+			{
+				//SearchCancelledException among others
+				throw (RuntimeException)e.getCause();
+			}
+			throw new IOException("Shard search failed", e.getCause());
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		if(combined != null)
+		{
+			combined.getIndexReader().decRef();
+			combined = null;
+		}
+		if(managers != null)
+		{
+			for(SearcherManager m : managers)
+			{
+				m.close();
+			}
+			managers = null;
+		}
+		if(executor != null)
+		{
+			executor.shutdown();
+		}
+	}
+
+	private SearcherManager[] managers() throws IOException
+	{
+		SearcherManager[] m = managers;
+		if(m == null)
+		{
+			synchronized(this)
+			{
+				m = managers;
+				if(m == null)
+				{
+					m = new SearcherManager[directories.length];
+					try
+					{
+						for(int i=0; i<m.length; i++)
+						{
+							m[i] = new SearcherManager(directories[i], new SearcherFactory());
+						}
+					}catch(IOException e)
+					{
+						for(SearcherManager opened : m)
+						{
+							if(opened != null)
+							{
+								opened.close();
+							}
+						}
+						throw e;
+					}
+					managers = m;
+				}
+			}
+		}
+		return m;
+	}
+
+	//a MultiReader over each shard's current reader; it keeps its own reference to each
+	private static IndexSearcher combine(SearcherManager[] m) throws IOException
+	{
+		IndexSearcher[] acquired = new IndexSearcher[m.length];
+		try
+		{
+			IndexReader[] readers = new IndexReader[m.length];
+			for(int i=0; i<m.length; i++)
+			{
+				acquired[i] = m[i].acquire();
+				readers[i] = acquired[i].getIndexReader();
+			}
+			return new IndexSearcher(new ShardReader(readers));
+		}finally
+		{
+			for(int i=0; i<m.length; i++)
+			{
+				if(acquired[i] != null)
+				{
+					m[i].release(acquired[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * MultiReader whose version changes whenever any shard's does, so
+	 * structures keyed on getVersion() are rebuilt after a refresh.
+	 */
+	private static class ShardReader extends MultiReader
+	{
+		ShardReader(IndexReader[] shards)
+		{
+			super(shards, false);
+		}
+
+		@Override
+		public long getVersion()
+		{
+			long version = 0;
+			for(IndexReader shard : getSequentialSubReaders())
+			{
+				version += shard.getVersion();
+			}
+			return version;
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package edu.gwu.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+
+import edu.gwu.search.IndexMetrics.Phase;
+
+/**
+ * Rolling log of queries slower than their index's threshold, shared by
+ * every index in the JVM.  Configured by system properties:
+ *
+ * slowlog.thresholdMillis: default threshold for new indexes; 1000 unless
+ * set, and a negative value turns the log off.  Each index's threshold can
+ * be changed at runtime through its MXBean.
+ *
+ * slowlog.file: defaults to slow-queries.log in the working directory.
+ * slowlog.limitKB and slowlog.count: size of each file before it rolls over
+ * (10 MB) and how many files are kept (5).
+ *
+ * An entry is one header line with the query, its parsed and rewritten
+ * forms, each term with its document frequency, the box, hit counts and
+ * the time of each phase it ran in milliseconds, followed by an indented
+ * explain of the top hit.  Nothing is built unless a query is over the
+ * threshold.
+ */
+public class SlowQueryLog
+{
+	public static final String THRESHOLD_PROPERTY = "slowlog.thresholdMillis";
+	public static final String FILE_PROPERTY = "slowlog.file";
+	public static final String LIMIT_PROPERTY = "slowlog.limitKB";
+	public static final String COUNT_PROPERTY = "slowlog.count";
+	private static final int MAX_TERMS = 50;
+
+	private static FileHandler handler;
+	private static boolean failed;
+
+	static long defaultThresholdMillis()
+	{
+		return Long.getLong(THRESHOLD_PROPERTY, 1000);
+	}
+
+	/**
+	 * Writes an entry for a finished query.  searcher may be null, in which
+	 * case term counts and the explain are left out.
+	 */
+	static void log(String index, PhaseTimer timer, IndexSearcher searcher, long elapsedNanos)
+	{
+		StringBuilder entry = new StringBuilder(512);
+		entry.append(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS").format(new Date()));
+		entry.append(' ').append(index).append(' ').append(millis(elapsedNanos)).append("ms");
+		if(timer.isPartial())
+		{
+			entry.append(" partial");
+		}
+		entry.append(" query=\"").append(timer.getText()).append('"');
+		if(timer.getParsed() != null)
+		{
+			entry.append(" parsed=").append(timer.getParsed());
+		}
+		Query rewritten = timer.getRewritten();
+		if(rewritten != null)
+		{
+			entry.append(" rewritten=").append(rewritten);
+			if(searcher != null)
+			{
+				appendTerms(entry, rewritten, searcher.getIndexReader());
+			}
+		}
+		double[] box = timer.getBox();
+		if(box != null)
+		{
+			entry.append(" bbox=").append(box[0]).append(',').append(box[1]).append(',')
+					.append(box[2]).append(',').append(box[3]);
+		}
+		if(timer.getTotalHits() >= 0)
+		{
+			entry.append(" hits=").append(timer.getTotalHits()).append('/').append(timer.getReturned());
+		}
+		for(Phase phase : Phase.values())
+		{
+			if(timer.isTimed(phase))
+			{
+				entry.append(' ').append(phase.name().toLowerCase()).append('=').append(millis(timer.getNanos(phase)));
+			}
+		}
+		if(searcher != null && rewritten != null && timer.getTopDoc() >= 0)
+		{
+			try
+			{
+				String explain = searcher.explain(rewritten, timer.getTopDoc()).toString();
+				entry.append("\n  top hit ").append(timer.getTopDoc()).append(": ");
+				entry.append(explain.trim().replace("\n", "\n  "));
+			}catch(IOException e)
+			{
+				entry.append("\n  explain failed: ").append(e);
+			}
+		}
+		write(entry.toString());
+	}
+
+	private static void appendTerms(StringBuilder entry, Query rewritten, IndexReader reader)
+	{
+		Set<Term> terms = new LinkedHashSet<Term>();
+		try
+		{
+			rewritten.extractTerms(terms);
+		}catch(UnsupportedOperationException e)
+		{
+			//filters and some wrappers cannot list their terms
+		}
+		entry.append(" terms=").append(terms.size()).append('[');
+		int n = 0;
+		for(Term t : terms)
+		{
+			if(n == MAX_TERMS)
+			{
+				entry.append(" ...");
+				break;
+			}
+			if(n++ > 0)
+			{
+				entry.append(' ');
+			}
+			entry.append(t.field()).append(':').append(t.text());
+			try
+			{
+				entry.append('(').append(reader.docFreq(t)).append(')');
+			}catch(IOException e)
+			{
+				entry.append("(?)");
+			}
+		}
+		entry.append(']');
+	}
+
+	private static String millis(long nanos)
+	{
+		return String.format("%.1f", nanos / 1e6);
+	}
+
+	private static synchronized void write(String entry)
+	{
+		if(handler == null && !failed)
+		{
+			String file = System.getProperty(FILE_PROPERTY,
+					new File(System.getProperty("user.dir"), "slow-queries.log").getPath());
+			try
+			{
+				//%g numbers the rolled files
+				handler = new FileHandler(file + ".%g", Integer.getInteger(LIMIT_PROPERTY, 10240) * 1024,
+						Math.max(1, Integer.getInteger(COUNT_PROPERTY, 5)), true);
+				handler.setFormatter(new Formatter()
+				{
+					@Override
+					public String format(LogRecord record)
+					{
+						return record.getMessage() + "\n";
+					}
+				});
+				//closing removes the lock file
+				Runtime.getRuntime().addShutdownHook(new Thread()
+				{
+					@Override
+					public void run()
+					{
+						synchronized(SlowQueryLog.class)
+						{
+							handler.close();
+						}
+					}
+				});
+			}catch(IOException e)
+			{
+				//reported once; slow queries are still counted in the metrics
+				failed = true;
+				e.printStackTrace();
+			}
+		}
+		if(handler != null)
+		{
+			handler.publish(new LogRecord(Level.INFO, entry));
+			handler.flush();
+		}
+	}
+}
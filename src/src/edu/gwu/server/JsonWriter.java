@@ -0,0 +1,172 @@
+package edu.gwu.server;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Minimal streaming JSON encoder.  Values are written straight through to
+ * the underlying Writer as they are produced, so a response never has to be
+ * built in memory first.  Callers are trusted to nest calls correctly.
+ */
+public class JsonWriter
+{
+	private final Writer out;
+	//one flag per open object/array: true until its first member is written
+	private boolean[] first = new boolean[16];
+	private int depth;
+	private boolean afterName;
+
+	public JsonWriter(Writer out)
+	{
+		this.out = out;
+	}
+
+	public JsonWriter beginObject() throws IOException
+	{
+		separate();
+		out.write('{');
+		push();
+		return this;
+	}
+
+	public JsonWriter endObject() throws IOException
+	{
+		depth--;
+		out.write('}');
+		return this;
+	}
+
+	public JsonWriter beginArray() throws IOException
+	{
+		separate();
+		out.write('[');
+		push();
+		return this;
+	}
+
+	public JsonWriter endArray() throws IOException
+	{
+		depth--;
+		out.write(']');
+		return this;
+	}
+
+	public JsonWriter name(String name) throws IOException
+	{
+		separate();
+		string(name);
+		out.write(':');
+		afterName = true;
+		return this;
+	}
+
+	public JsonWriter value(String value) throws IOException
+	{
+		separate();
+		if(value == null)
+		{
+			out.write("null");
+		}else
+		{
+			string(value);
+		}
+		return this;
+	}
+
+	public JsonWriter value(double value) throws IOException
+	{
+		separate();
+		if(Double.isNaN(value) || Double.isInfinite(value))
+		{
+			out.write("null");
+		}else if(value == Math.rint(value) && Math.abs(value) < 1e15)
+		{
+			out.write(Long.toString((long)value));
+		}else
+		{
+			out.write(Double.toString(value));
+		}
+		return this;
+	}
+
+	public JsonWriter value(long value) throws IOException
+	{
+		separate();
+		out.write(Long.toString(value));
+		return this;
+	}
+
+	public void flush() throws IOException
+	{
+		out.flush();
+	}
+
+	private void push()
+	{
+		if(depth == first.length)
+		{
+			boolean[] grown = new boolean[depth * 2];
+			System.arraycopy(first, 0, grown, 0, depth);
+			first = grown;
+		}
+		first[depth++] = true;
+	}
+
+	//comma before every member but the first; nothing between a name and its value
+	private void separate() throws IOException
+	{
+		if(afterName)
+		{
+			afterName = false;
+			return;
+		}
+		if(depth > 0)
+		{
+			if(first[depth - 1])
+			{
+				first[depth - 1] = false;
+			}else
+			{
+				out.write(',');
+			}
+		}
+	}
+
+	private void string(String s) throws IOException
+	{
+		out.write('"');
+		int start = 0;
+		for(int i=0; i<s.length(); i++)
+		{
+			char c = s.charAt(i);
+			String escaped = null;
+			if(c == '"')
+			{
+				escaped = "\\\"";
+			}else if(c == '\\')
+			{
+				escaped = "\\\\";
+			}else if(c == '\n')
+			{
+				escaped = "\\n";
+			}else if(c == '\r')
+			{
+				escaped = "\\r";
+			}else if(c == '\t')
+			{
+				escaped = "\\t";
+			}else if(c < 0x20 || c == 0x2028 || c == 0x2029)
+			{
+				escaped = String.format("\\u%04x", (int)c);
+			}
+			if(escaped != null)
+			{
+				out.write(s, start, i - start);
+				out.write(escaped);
+				start = i + 1;
+			}
+		}
+		out.write(s, start, s.length() - start);
+		out.write('"');
+	}
+}
@@ -0,0 +1,371 @@
+package edu.gwu.server;
+
+import gov.nasa.worldwind.geom.Position;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.gwu.spatial.GeoResult;
+import edu.gwu.spatial.USGSDomesticNamesIndex;
+import edu.gwu.text.LuceneTextIndex;
+import edu.gwu.text.TextResult;
+
+/**
+ * Headless JSON search service over the spatial and text indexes, on the
+ * JDK's built-in HTTP server.  Needs worldwind.jar on the classpath for the
+ * geometry classes, but no display or OpenGL.
+ *
+ *   GET /geocode?q=...&bbox=west,south,east,north[&size=100]
+ *   GET /search?q=...[&size=100]
+ *
+ * Requests run on a fixed pool with a bounded queue; when the queue is full
+ * the HTTP dispatcher runs the request itself, which stops it accepting more
+ * until the pool catches up.  Each index is opened once and its
+ * SharedSearcher serves every request.  Each request collects its page of
+ * results first, since a spatial page may come whole from the viewport
+ * cache; the page is then encoded straight onto a chunked response rather
+ * than built up as a string.  Connections are kept alive between requests.
+ */
+public class SearchServer
+{
+	private static final int MAX_SIZE = 1000;
+
+	private final HttpServer server;
+	private final ThreadPoolExecutor executor;
+	private final USGSDomesticNamesIndex spatial;
+	private final LuceneTextIndex text;
+
+	public SearchServer(InetSocketAddress address, USGSDomesticNamesIndex spatial, LuceneTextIndex text,
+			int threads, int queued) throws IOException
+	{
+		this.spatial = spatial;
+		this.text = text;
+		final AtomicInteger count = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queued), new ThreadFactory()
+				{
+					@Override
+					public Thread newThread(Runnable r)
+					{
+						return new Thread(r, "search-http-"+count.incrementAndGet());
+					}
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+		server = HttpServer.create(address, 0);
+		server.setExecutor(executor);
+		server.createContext("/geocode", new GeocodeHandler());
+		server.createContext("/search", new TextHandler());
+	}
+
+	public void start()
+	{
+		server.start();
+	}
+
+	/**
+	 * Stops accepting requests, waits up to delaySeconds for open exchanges,
+	 * then shuts the pool down.  The indexes are left open.
+	 */
+	public void stop(int delaySeconds)
+	{
+		server.stop(delaySeconds);
+		executor.shutdown();
+	}
+
+	private class GeocodeHandler extends JsonHandler
+	{
+		@Override
+		protected void respond(Map<String, String> params, HttpExchange exchange) throws IOException, BadRequest
+		{
+			String query = required(params, "q");
+			double[] bbox = bbox(required(params, "bbox"));
+			int size = size(params);
+			Position nw = Position.fromDegrees(bbox[3], bbox[0], 0);
+			Position se = Position.fromDegrees(bbox[1], bbox[2], 0);
+			List<GeoResult> results;
+			try
+			{
+				results = spatial.findPage(query, nw, se, null, size).getResults();
+			}catch(ParseException e)
+			{
+				throw new BadRequest(e.getMessage());
+			}
+
+			JsonWriter json = begin(exchange);
+			json.beginObject();
+			json.name("query").value(query);
+			json.name("count").value(results.size());
+			json.name("results").beginArray();
+			for(GeoResult r : results)
+			{
+				json.beginObject();
+				json.name("name").value(r.name);
+				json.name("lat").value(r.pos.getLatitude().getDegrees());
+				json.name("lon").value(r.pos.getLongitude().getDegrees());
+				json.endObject();
+			}
+			json.endArray();
+			json.endObject();
+			json.flush();
+		}
+	}
+
+	private class TextHandler extends JsonHandler
+	{
+		@Override
+		protected void respond(Map<String, String> params, HttpExchange exchange) throws IOException, BadRequest
+		{
+			String query = required(params, "q");
+			int size = size(params);
+			List<TextResult> results;
+			try
+			{
+				results = text.findHits(query, size);
+			}catch(ParseException e)
+			{
+				throw new BadRequest(e.getMessage());
+			}catch(InvalidTokenOffsetsException e)
+			{
+				throw new IOException(e);
+			}
+
+			JsonWriter json = begin(exchange);
+			json.beginObject();
+			json.name("query").value(query);
+			json.name("count").value(results.size());
+			json.name("results").beginArray();
+			for(TextResult r : results)
+			{
+				json.beginObject();
+				json.name("name").value(r.name);
+				json.name("path").value(r.path);
+				if(r.page > 0)
+				{
+					json.name("page").value(r.page);
+				}
+				json.name("score").value(r.score);
+				json.name("fragments").beginArray();
+				for(String fragment : r.fragments)
+				{
+					json.value(fragment);
+				}
+				json.endArray();
+				json.endObject();
+			}
+			json.endArray();
+			json.endObject();
+			json.flush();
+		}
+	}
+
+	private static class BadRequest extends Exception
+	{
+		BadRequest(String message)
+		{
+			super(message);
+		}
+	}
+
+	/**
+	 * Parses the query string, runs respond(), and turns failures into JSON
+	 * error responses.  The exchange is always closed so the connection can
+	 * be reused.
+	 */
+	private abstract static class JsonHandler implements HttpHandler
+	{
+		protected abstract void respond(Map<String, String> params, HttpExchange exchange) throws IOException, BadRequest;
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException
+		{
+			try
+			{
+				drain(exchange.getRequestBody());
+				if(!exchange.getRequestMethod().equals("GET"))
+				{
+					error(exchange, 405, "Only GET is supported");
+					return;
+				}
+				try
+				{
+					respond(params(exchange.getRequestURI().getRawQuery()), exchange);
+				}catch(BadRequest e)
+				{
+					error(exchange, 400, e.getMessage());
+				}catch(IOException e)
+				{
+					e.printStackTrace();
+					if(exchange.getResponseCode() == -1)
+					{
+						error(exchange, 500, e.getMessage());
+					}
+				}catch(RuntimeException e)
+				{
+					e.printStackTrace();
+					if(exchange.getResponseCode() == -1)
+					{
+						error(exchange, 500, e.toString());
+					}
+				}
+			}finally
+			{
+				exchange.close();
+			}
+		}
+
+		//chunked, so the body is sent as it is encoded
+		protected JsonWriter begin(HttpExchange exchange) throws IOException
+		{
+			exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+			exchange.sendResponseHeaders(200, 0);
+			return new JsonWriter(new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), "UTF-8"), 8192));
+		}
+
+		private static void error(HttpExchange exchange, int status, String message) throws IOException
+		{
+			StringWriter body = new StringWriter();
+			JsonWriter json = new JsonWriter(body);
+			json.beginObject().name("error").value(message).endObject();
+			byte[] bytes = body.toString().getBytes("UTF-8");
+			exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+			exchange.sendResponseHeaders(status, bytes.length);
+			exchange.getResponseBody().write(bytes);
+		}
+
+		private static void drain(InputStream in) throws IOException
+		{
+			byte[] buf = new byte[1024];
+			while(in.read(buf) != -1)
+			{
+			}
+		}
+
+		protected static String required(Map<String, String> params, String name) throws BadRequest
+		{
+			String value = params.get(name);
+			if(value == null || value.trim().isEmpty())
+			{
+				throw new BadRequest("Missing parameter "+name);
+			}
+			return value;
+		}
+
+		protected static int size(Map<String, String> params) throws BadRequest
+		{
+			String value = params.get("size");
+			if(value == null)
+			{
+				return 100;
+			}
+			try
+			{
+				return Math.max(1, Math.min(MAX_SIZE, Integer.parseInt(value.trim())));
+			}catch(NumberFormatException e)
+			{
+				throw new BadRequest("size must be a number");
+			}
+		}
+
+		//west,south,east,north, in degrees; boxes crossing the antimeridian are not supported
+		protected static double[] bbox(String value) throws BadRequest
+		{
+			String[] parts = value.split(",");
+			if(parts.length != 4)
+			{
+				throw new BadRequest("bbox must be west,south,east,north");
+			}
+			double[] box = new double[4];
+			try
+			{
+				for(int i=0; i<4; i++)
+				{
+					box[i] = Double.parseDouble(parts[i].trim());
+				}
+			}catch(NumberFormatException e)
+			{
+				throw new BadRequest("bbox must be west,south,east,north");
+			}
+			//written so NaN fails every check
+			if(!(box[0] >= -180 && box[2] <= 180 && box[0] <= box[2]))
+			{
+				throw new BadRequest("bbox west and east must be longitudes from -180 to 180, west no greater than east");
+			}
+			if(!(box[1] >= -90 && box[3] <= 90 && box[1] <= box[3]))
+			{
+				throw new BadRequest("bbox south and north must be latitudes from -90 to 90, south no greater than north");
+			}
+			return box;
+		}
+
+		private static Map<String, String> params(String rawQuery) throws UnsupportedEncodingException
+		{
+			Map<String, String> params = new HashMap<String, String>();
+			if(rawQuery == null)
+			{
+				return params;
+			}
+			for(String pair : rawQuery.split("&"))
+			{
+				int eq = pair.indexOf('=');
+				if(eq > 0)
+				{
+					params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+							URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+				}
+			}
+			return params;
+		}
+	}
+
+	/**
+	 * Usage: SearchServer [port]   (default 8080)
+	 * Serves the indexes the Swing UIs build, from the working directory.
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+		int threads = Runtime.getRuntime().availableProcessors() * 2;
+		final USGSDomesticNamesIndex spatial = new USGSDomesticNamesIndex(new File("lucene-index"));
+		final LuceneTextIndex text = new LuceneTextIndex(new File(System.getProperty("user.dir"), "text-index"));
+		final SearchServer server = new SearchServer(new InetSocketAddress(port), spatial, text, threads, threads * 8);
+		Runtime.getRuntime().addShutdownHook(new Thread()
+		{
+			@Override
+			public void run()
+			{
+				server.stop(1);
+				try
+				{
+					spatial.close();
+					text.close();
+				}catch(IOException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		});
+		server.start();
+		System.out.println("Listening on port "+port+" with "+threads+" workers");
+	}
+}
@@ -0,0 +1,435 @@
+package edu.gwu.spatial;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.util.ReaderUtil;
+
+/**
+ * Array-backed 3-d tree over every feature with coordinates, for nearest
+ * feature and radius queries.  Points are stored as unit vectors, so
+ * straight-line (chord) distance orders points exactly like great-circle
+ * distance and the tree needs no special handling at the poles or the
+ * date line.
+ *
+ * The tree is implicit: the arrays are permuted so that the median of every
+ * range [lo, hi) sits at its middle, split on x, y, z in turn.  No node
+ * objects are allocated.  A tree is built from one searcher and its doc IDs
+ * are only meaningful for that searcher's reader.
+ */
+public class FeatureKDTree
+{
+	public static final String FEATURE_CLASS_KEY = "FEATURE_CLASS_KEY";
+	public static final String STATE_ALPHA_KEY = "STATE_ALPHA_KEY";
+
+	static final double EARTH_RADIUS_M = 6371008.8;
+
+	private final float[] xyz;
+	private final int[] docs;
+	private final int[] classOrds;
+	private final int[] stateOrds;
+	private final List<String> classes;
+	private final List<String> states;
+	private final long version;
+
+	private FeatureKDTree(float[] xyz, int[] docs, int[] classOrds, int[] stateOrds,
+			List<String> classes, List<String> states, long version)
+	{
+		this.xyz = xyz;
+		this.docs = docs;
+		this.classOrds = classOrds;
+		this.stateOrds = stateOrds;
+		this.classes = classes;
+		this.states = states;
+		this.version = version;
+		build(0, docs.length, 0);
+	}
+
+	public static FeatureKDTree build(IndexSearcher searcher) throws IOException
+	{
+		IndexReader top = searcher.getIndexReader();
+		List<IndexReader> subs = new ArrayList<IndexReader>();
+		ReaderUtil.gatherSubReaders(subs, top);
+
+		int count = 0;
+		for(IndexReader sub : subs)
+		{
+			GeoColumns columns = GeoColumns.get(sub);
+			for(int doc=0; doc<sub.maxDoc(); doc++)
+			{
+				if(columns.hasCoordinates(doc) && !sub.isDeleted(doc))
+				{
+					count++;
+				}
+			}
+		}
+
+		float[] xyz = new float[count * 3];
+		int[] docs = new int[count];
+		int[] classOrds = new int[count];
+		int[] stateOrds = new int[count];
+		List<String> classes = new ArrayList<String>();
+		List<String> states = new ArrayList<String>();
+		Map<String, Integer> classIds = new HashMap<String, Integer>();
+		Map<String, Integer> stateIds = new HashMap<String, Integer>();
+
+		int n = 0;
+		int base = 0;
+		for(IndexReader sub : subs)
+		{
+			GeoColumns columns = GeoColumns.get(sub);
+			FieldCache.StringIndex classIndex = FieldCache.DEFAULT.getStringIndex(sub, FEATURE_CLASS_KEY);
+			FieldCache.StringIndex stateIndex = FieldCache.DEFAULT.getStringIndex(sub, STATE_ALPHA_KEY);
+			int[] classMap = globalOrds(classIndex.lookup, classIds, classes);
+			int[] stateMap = globalOrds(stateIndex.lookup, stateIds, states);
+			for(int doc=0; doc<sub.maxDoc(); doc++)
+			{
+				if(!columns.hasCoordinates(doc) || sub.isDeleted(doc))
+				{
+					continue;
+				}
+				double lat = Math.toRadians(columns.lat[doc]);
+				double lon = Math.toRadians(columns.lon[doc]);
+				xyz[n*3] = (float)(Math.cos(lat) * Math.cos(lon));
+				xyz[n*3+1] = (float)(Math.cos(lat) * Math.sin(lon));
+				xyz[n*3+2] = (float)Math.sin(lat);
+				docs[n] = base + doc;
+				classOrds[n] = classMap[classIndex.order[doc]];
+				stateOrds[n] = stateMap[stateIndex.order[doc]];
+				n++;
+			}
+			base += sub.maxDoc();
+		}
+		return new FeatureKDTree(xyz, docs, classOrds, stateOrds, classes, states, top.getVersion());
+	}
+
+	private static int[] globalOrds(String[] lookup, Map<String, Integer> ids, List<String> values)
+	{
+		int[] map = new int[lookup.length];
+		//segment ord 0 means "no value"
+		map[0] = -1;
+		for(int i=1; i<lookup.length; i++)
+		{
+			Integer id = ids.get(lookup[i]);
+			if(id == null)
+			{
+				id = values.size();
+				ids.put(lookup[i], id);
+				values.add(lookup[i]);
+			}
+			map[i] = id;
+		}
+		return map;
+	}
+
+	/**
+	 * Version of the reader the tree was built from.
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+
+	public int size()
+	{
+		return docs.length;
+	}
+
+	/**
+	 * The k features closest to the point, nearest first.  featureClass and
+	 * state may be null to match any value.
+	 */
+	public List<Neighbor> nearest(double lat, double lon, int k, String featureClass, String state)
+	{
+		Search s = new Search(lat, lon, featureClass, state);
+		if(k <= 0 || s.unmatchable)
+		{
+			return new ArrayList<Neighbor>(0);
+		}
+		s.heapDocs = new int[k];
+		s.heapDist = new double[k];
+		s.limit = Double.POSITIVE_INFINITY;
+		nearest(s, 0, docs.length, 0);
+		return s.sortedHeap();
+	}
+
+	/**
+	 * All features within radiusMeters of the point, nearest first.
+	 */
+	public List<Neighbor> within(double lat, double lon, double radiusMeters, String featureClass, String state)
+	{
+		Search s = new Search(lat, lon, featureClass, state);
+		List<Neighbor> found = new ArrayList<Neighbor>();
+		if(s.unmatchable)
+		{
+			return found;
+		}
+		double angle = Math.min(Math.PI, radiusMeters / EARTH_RADIUS_M);
+		double chord = 2 * Math.sin(angle / 2);
+		within(s, 0, docs.length, 0, chord * chord, found);
+		Collections.sort(found);
+		return found;
+	}
+
+	private void nearest(Search s, int lo, int hi, int axis)
+	{
+		if(lo >= hi)
+		{
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		double d = s.distance2(mid);
+		if(d < s.limit && s.accepts(mid))
+		{
+			s.offer(docs[mid], d);
+		}
+		double diff = s.q[axis] - xyz[mid*3+axis];
+		int next = axis == 2 ? 0 : axis + 1;
+		if(diff < 0)
+		{
+			nearest(s, lo, mid, next);
+			if(diff * diff < s.limit)
+			{
+				nearest(s, mid + 1, hi, next);
+			}
+		}else
+		{
+			nearest(s, mid + 1, hi, next);
+			if(diff * diff < s.limit)
+			{
+				nearest(s, lo, mid, next);
+			}
+		}
+	}
+
+	private void within(Search s, int lo, int hi, int axis, double limit, List<Neighbor> found)
+	{
+		if(lo >= hi)
+		{
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		double d = s.distance2(mid);
+		if(d <= limit && s.accepts(mid))
+		{
+			found.add(new Neighbor(docs[mid], chordToMeters(d)));
+		}
+		double diff = s.q[axis] - xyz[mid*3+axis];
+		int next = axis == 2 ? 0 : axis + 1;
+		if(diff < 0 || diff * diff <= limit)
+		{
+			within(s, lo, mid, next, limit, found);
+		}
+		if(diff >= 0 || diff * diff <= limit)
+		{
+			within(s, mid + 1, hi, next, limit, found);
+		}
+	}
+
+	static double chordToMeters(double chord2)
+	{
+		double chord = Math.min(2.0, Math.sqrt(chord2));
+		return 2 * Math.asin(chord / 2) * EARTH_RADIUS_M;
+	}
+
+	private void build(int lo, int hi, int axis)
+	{
+		while(hi - lo > 1)
+		{
+			int mid = (lo + hi) >>> 1;
+			select(lo, hi - 1, mid, axis);
+			int next = axis == 2 ? 0 : axis + 1;
+			build(lo, mid, next);
+			lo = mid + 1;
+			axis = next;
+		}
+	}
+
+	//quickselect: afterwards position k holds the median along axis
+	private void select(int left, int right, int k, int axis)
+	{
+		while(right > left)
+		{
+			int pivotIndex = (left + right) >>> 1;
+			float pivot = xyz[pivotIndex*3+axis];
+			swap(pivotIndex, right);
+			int store = left;
+			for(int i=left; i<right; i++)
+			{
+				//ties alternate sides so runs of identical coordinates stay balanced
+				float v = xyz[i*3+axis];
+				if(v < pivot || (v == pivot && (i & 1) == 0))
+				{
+					swap(i, store);
+					store++;
+				}
+			}
+			swap(store, right);
+			if(store == k)
+			{
+				return;
+			}else if(store < k)
+			{
+				left = store + 1;
+			}else
+			{
+				right = store - 1;
+			}
+		}
+	}
+
+	private void swap(int a, int b)
+	{
+		if(a == b)
+		{
+			return;
+		}
+		for(int i=0; i<3; i++)
+		{
+			float t = xyz[a*3+i];
+			xyz[a*3+i] = xyz[b*3+i];
+			xyz[b*3+i] = t;
+		}
+		int t = docs[a];
+		docs[a] = docs[b];
+		docs[b] = t;
+		t = classOrds[a];
+		classOrds[a] = classOrds[b];
+		classOrds[b] = t;
+		t = stateOrds[a];
+		stateOrds[a] = stateOrds[b];
+		stateOrds[b] = t;
+	}
+
+	private static int find(List<String> values, String value)
+	{
+		for(int i=0; i<values.size(); i++)
+		{
+			if(values.get(i).equalsIgnoreCase(value))
+			{
+				return i;
+			}
+		}
+		return -2;
+	}
+
+	/**
+	 * A doc ID and its great-circle distance from the query point.
+	 */
+	public static class Neighbor implements Comparable<Neighbor>
+	{
+		public final int doc;
+		public final double meters;
+
+		Neighbor(int doc, double meters)
+		{
+			this.doc = doc;
+			this.meters = meters;
+		}
+
+		@Override
+		public int compareTo(Neighbor o)
+		{
+			return Double.compare(meters, o.meters);
+		}
+	}
+
+	private class Search
+	{
+		final double[] q = new double[3];
+		final int classOrd;
+		final int stateOrd;
+		final boolean unmatchable;
+		int[] heapDocs;
+		double[] heapDist;
+		int heapSize;
+		double limit;
+
+		Search(double lat, double lon, String featureClass, String state)
+		{
+			double la = Math.toRadians(lat);
+			double lo = Math.toRadians(lon);
+			q[0] = Math.cos(la) * Math.cos(lo);
+			q[1] = Math.cos(la) * Math.sin(lo);
+			q[2] = Math.sin(la);
+			classOrd = featureClass == null ? -1 : find(classes, featureClass);
+			stateOrd = state == null ? -1 : find(states, state);
+			unmatchable = classOrd == -2 || stateOrd == -2;
+		}
+
+		double distance2(int i)
+		{
+			double dx = q[0] - xyz[i*3];
+			double dy = q[1] - xyz[i*3+1];
+			double dz = q[2] - xyz[i*3+2];
+			return dx*dx + dy*dy + dz*dz;
+		}
+
+		boolean accepts(int i)
+		{
+			return (classOrd < 0 || classOrds[i] == classOrd) && (stateOrd < 0 || stateOrds[i] == stateOrd);
+		}
+
+		//bounded max-heap on distance; limit is the current k-th distance
+		void offer(int doc, double d)
+		{
+			int i;
+			if(heapSize < heapDocs.length)
+			{
+				i = heapSize++;
+				while(i > 0 && heapDist[(i-1)/2] < d)
+				{
+					heapDocs[i] = heapDocs[(i-1)/2];
+					heapDist[i] = heapDist[(i-1)/2];
+					i = (i-1)/2;
+				}
+			}else
+			{
+				i = 0;
+				while(true)
+				{
+					int child = 2*i + 1;
+					if(child >= heapSize)
+					{
+						break;
+					}
+					if(child + 1 < heapSize && heapDist[child+1] > heapDist[child])
+					{
+						child++;
+					}
+					if(heapDist[child] <= d)
+					{
+						break;
+					}
+					heapDocs[i] = heapDocs[child];
+					heapDist[i] = heapDist[child];
+					i = child;
+				}
+			}
+			heapDocs[i] = doc;
+			heapDist[i] = d;
+			if(heapSize == heapDocs.length)
+			{
+				limit = heapDist[0];
+			}
+		}
+
+		List<Neighbor> sortedHeap()
+		{
+			List<Neighbor> result = new ArrayList<Neighbor>(heapSize);
+			for(int i=0; i<heapSize; i++)
+			{
+				result.add(new Neighbor(heapDocs[i], chordToMeters(heapDist[i])));
+			}
+			Collections.sort(result);
+			return result;
+		}
+	}
+}
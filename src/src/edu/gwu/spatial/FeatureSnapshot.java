@@ -0,0 +1,234 @@
+package edu.gwu.spatial;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.util.ReaderUtil;
+
+/**
+ * What is already indexed, as FEATURE_ID to row content hash, for delta
+ * ingest of a new NationalFile release.  Both are held as 64-bit hashes in
+ * two sorted parallel long arrays (16 bytes per feature), and a concurrent
+ * bit set records which features the new release still contains.
+ */
+public class FeatureSnapshot
+{
+	public static final String FEATURE_ID = "FEATURE_ID";
+	public static final String ROW_HASH = "ROW_HASH";
+
+	public static final int NEW = -1;
+
+	private final long[] keys;
+	private final long[] rowHashes;
+	private final AtomicLongArray seen;
+
+	private FeatureSnapshot(long[] keys, long[] rowHashes)
+	{
+		this.keys = keys;
+		this.rowHashes = rowHashes;
+		this.seen = new AtomicLongArray((keys.length >>> 6) + 1);
+	}
+
+	public static FeatureSnapshot load(IndexReader top) throws IOException
+	{
+		List<IndexReader> subs = new ArrayList<IndexReader>();
+		ReaderUtil.gatherSubReaders(subs, top);
+		long[] keys = new long[top.numDocs()];
+		long[] rowHashes = new long[keys.length];
+		int n = 0;
+		for(IndexReader sub : subs)
+		{
+			long[] hashes = FieldCache.DEFAULT.getLongs(sub, ROW_HASH, FieldCache.NUMERIC_UTILS_LONG_PARSER);
+			TermEnum terms = sub.terms(new Term(FEATURE_ID, ""));
+			TermDocs termDocs = sub.termDocs();
+			try
+			{
+				do
+				{
+					Term term = terms.term();
+					if(term == null || term.field() != FEATURE_ID)
+					{
+						break;
+					}
+					long key = keyHash(term.text());
+					termDocs.seek(terms);
+					while(termDocs.next() && n < keys.length)
+					{
+						keys[n] = key;
+						rowHashes[n] = hashes[termDocs.doc()];
+						n++;
+					}
+				}while(terms.next());
+			}finally
+			{
+				termDocs.close();
+				terms.close();
+			}
+		}
+		if(n < keys.length)
+		{
+			long[] k = new long[n];
+			long[] h = new long[n];
+			System.arraycopy(keys, 0, k, 0, n);
+			System.arraycopy(rowHashes, 0, h, 0, n);
+			keys = k;
+			rowHashes = h;
+		}
+		sort(keys, rowHashes, 0, keys.length - 1);
+		return new FeatureSnapshot(keys, rowHashes);
+	}
+
+	public int size()
+	{
+		return keys.length;
+	}
+
+	static long keyHash(String featureId)
+	{
+		//FNV-1a, 64 bit
+		long h = 0xcbf29ce484222325L;
+		for(int i=0; i<featureId.length(); i++)
+		{
+			h ^= featureId.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/**
+	 * Marks the feature as present in the new release and returns its slot,
+	 * for rowHash(), or NEW if it was never indexed.  Safe to call from many
+	 * threads.
+	 */
+	public int mark(String featureId)
+	{
+		int i = find(keyHash(featureId));
+		if(i >= 0)
+		{
+			long bit = 1L << (i & 63);
+			int word = i >>> 6;
+			long old;
+			do
+			{
+				old = seen.get(word);
+			}while((old & bit) == 0 && !seen.compareAndSet(word, old, old | bit));
+			return i;
+		}
+		return NEW;
+	}
+
+	public long rowHash(int i)
+	{
+		return rowHashes[i];
+	}
+
+	/**
+	 * Deletes every indexed feature that no call to mark() asked about, from
+	 * every writer given (one per shard).  Returns the number of features
+	 * deleted.
+	 */
+	public int deleteUnseen(IndexReader top, IndexWriter... writers) throws IOException
+	{
+		List<Term> gone = new ArrayList<Term>();
+		TermEnum terms = top.terms(new Term(FEATURE_ID, ""));
+		try
+		{
+			do
+			{
+				Term term = terms.term();
+				if(term == null || term.field() != FEATURE_ID)
+				{
+					break;
+				}
+				int i = find(keyHash(term.text()));
+				if(i >= 0 && (seen.get(i >>> 6) & (1L << (i & 63))) == 0)
+				{
+					gone.add(term);
+				}
+			}while(terms.next());
+		}finally
+		{
+			terms.close();
+		}
+		if(!gone.isEmpty())
+		{
+			Term[] keys = gone.toArray(new Term[gone.size()]);
+			for(IndexWriter writer : writers)
+			{
+				writer.deleteDocuments(keys);
+			}
+		}
+		return gone.size();
+	}
+
+	private int find(long key)
+	{
+		int lo = 0;
+		int hi = keys.length - 1;
+		while(lo <= hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if(keys[mid] < key)
+			{
+				lo = mid + 1;
+			}else if(keys[mid] > key)
+			{
+				hi = mid - 1;
+			}else
+			{
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	private static void sort(long[] keys, long[] values, int left, int right)
+	{
+		while(left < right)
+		{
+			long pivot = keys[(left + right) >>> 1];
+			int i = left;
+			int j = right;
+			while(i <= j)
+			{
+				while(keys[i] < pivot)
+				{
+					i++;
+				}
+				while(keys[j] > pivot)
+				{
+					j--;
+				}
+				if(i <= j)
+				{
+					long t = keys[i];
+					keys[i] = keys[j];
+					keys[j] = t;
+					t = values[i];
+					values[i] = values[j];
+					values[j] = t;
+					i++;
+					j--;
+				}
+			}
+			//recurse into the smaller half, loop on the larger
+			if(j - left < right - i)
+			{
+				sort(keys, values, left, j);
+				left = i;
+			}else
+			{
+				sort(keys, values, i, right);
+				right = j;
+			}
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package edu.gwu.spatial;
+
+import gov.nasa.worldwind.geom.LatLon;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+
+public class GeoAggregation
+{
+	public static class Cluster
+	{
+		public final LatLon centroid;
+		public final int count;
+		public Cluster(LatLon centroid, int count)
+		{
+			this.centroid = centroid;
+			this.count = count;
+		}
+	}
+
+	public final int totalHits;
+	public final List<Cluster> clusters;
+	public final Map<String, Integer> featureClasses;
+	public final Map<String, Integer> states;
+	public final int elevCount;
+	public final float elevMin;
+	public final float elevMax;
+	public final double elevAvg;
+
+	public GeoAggregation(int totalHits, List<Cluster> clusters, Map<String, Integer> featureClasses,
+			Map<String, Integer> states, int elevCount, float elevMin, float elevMax, double elevAvg)
+	{
+		this.totalHits = totalHits;
+		this.clusters = clusters;
+		this.featureClasses = featureClasses;
+		this.states = states;
+		this.elevCount = elevCount;
+		this.elevMin = elevMin;
+		this.elevMax = elevMax;
+		this.elevAvg = elevAvg;
+	}
+
+	/**
+	 * The n most common values of a facet, as "value (count)".
+	 */
+	public static List<String> top(final Map<String, Integer> facet, int n)
+	{
+		List<String> values = new ArrayList<String>(facet.keySet());
+		Collections.sort(values, new Comparator<String>()
+		{
+			@Override
+			public int compare(String a, String b)
+			{
+				return facet.get(b).compareTo(facet.get(a));
+			}
+		});
+		List<String> top = new ArrayList<String>(Math.min(n, values.size()));
+		for(int i=0; i<n && i<values.size(); i++)
+		{
+			top.add(values.get(i)+" ("+facet.get(values.get(i))+")");
+		}
+		return top;
+	}
+
+	@Override
+	public String toString()
+	{
+		String summary = totalHits+" matches in "+clusters.size()+" clusters; classes: "+top(featureClasses, 3)
+				+"; states: "+top(states, 3);
+		if(elevCount > 0)
+		{
+			summary += String.format("; elevation %.0f to %.0f m (avg %.0f)", elevMin, elevMax, elevAvg);
+		}
+		return summary;
+	}
+}
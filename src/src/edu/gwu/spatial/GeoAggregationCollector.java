@@ -0,0 +1,162 @@
+package edu.gwu.spatial;
+
+import gov.nasa.worldwind.geom.LatLon;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.Scorer;
+
+/**
+ * Summarizes every matching document in one pass: match counts and
+ * centroids on a rows x cols grid over the viewport, counts per
+ * FEATURE_CLASS and STATE_ALPHA, and min/max/average elevation.  Values are
+ * read from GeoColumns and from FieldCache ordinals of the untokenized key
+ * fields; facet counts are kept per segment ordinal and only turned into
+ * strings when the collector moves to the next segment.
+ */
+public class GeoAggregationCollector extends Collector
+{
+	private final double minLat, maxLat, minLon, maxLon;
+	private final int rows, cols;
+	private final int[] cellCounts;
+	private final double[] cellLat;
+	private final double[] cellLon;
+	private final Map<String, Integer> featureClasses = new HashMap<String, Integer>();
+	private final Map<String, Integer> states = new HashMap<String, Integer>();
+	private int total;
+	private int elevCount;
+	private double elevSum;
+	private float elevMin = Float.POSITIVE_INFINITY;
+	private float elevMax = Float.NEGATIVE_INFINITY;
+
+	private GeoColumns columns;
+	private FieldCache.StringIndex classIndex;
+	private FieldCache.StringIndex stateIndex;
+	private int[] classCounts;
+	private int[] stateCounts;
+
+	public GeoAggregationCollector(double minLat, double maxLat, double minLon, double maxLon, int rows, int cols)
+	{
+		this.minLat = minLat;
+		this.maxLat = maxLat;
+		this.minLon = minLon;
+		this.maxLon = maxLon;
+		this.rows = rows;
+		this.cols = cols;
+		cellCounts = new int[rows * cols];
+		cellLat = new double[rows * cols];
+		cellLon = new double[rows * cols];
+	}
+
+	@Override
+	public void setScorer(Scorer scorer) throws IOException
+	{
+	}
+
+	@Override
+	public void setNextReader(IndexReader reader, int docBase) throws IOException
+	{
+		flushSegment();
+		columns = GeoColumns.get(reader);
+		classIndex = FieldCache.DEFAULT.getStringIndex(reader, FeatureKDTree.FEATURE_CLASS_KEY);
+		stateIndex = FieldCache.DEFAULT.getStringIndex(reader, FeatureKDTree.STATE_ALPHA_KEY);
+		classCounts = new int[classIndex.lookup.length];
+		stateCounts = new int[stateIndex.lookup.length];
+	}
+
+	@Override
+	public void collect(int doc) throws IOException
+	{
+		total++;
+		classCounts[classIndex.order[doc]]++;
+		stateCounts[stateIndex.order[doc]]++;
+		if(columns.hasCoordinates(doc))
+		{
+			double lat = columns.lat[doc];
+			double lon = columns.lon[doc];
+			int row = cell(lat, minLat, maxLat, rows);
+			int col = cell(lon, minLon, maxLon, cols);
+			int cell = row * cols + col;
+			cellCounts[cell]++;
+			cellLat[cell] += lat;
+			cellLon[cell] += lon;
+		}
+		if(columns.hasElevation(doc))
+		{
+			float elev = columns.elev[doc];
+			elevCount++;
+			elevSum += elev;
+			if(elev < elevMin)
+			{
+				elevMin = elev;
+			}
+			if(elev > elevMax)
+			{
+				elevMax = elev;
+			}
+		}
+	}
+
+	@Override
+	public boolean acceptsDocsOutOfOrder()
+	{
+		return true;
+	}
+
+	private static int cell(double v, double min, double max, int cells)
+	{
+		int c = (int)((v - min) / (max - min) * cells);
+		return c < 0 ? 0 : (c >= cells ? cells - 1 : c);
+	}
+
+	private void flushSegment()
+	{
+		if(classIndex != null)
+		{
+			addCounts(classIndex.lookup, classCounts, featureClasses);
+			addCounts(stateIndex.lookup, stateCounts, states);
+			classIndex = null;
+			stateIndex = null;
+		}
+	}
+
+	private static void addCounts(String[] lookup, int[] counts, Map<String, Integer> into)
+	{
+		//ord 0 is "no value"
+		for(int ord=1; ord<counts.length; ord++)
+		{
+			if(counts[ord] > 0)
+			{
+				Integer old = into.get(lookup[ord]);
+				into.put(lookup[ord], old == null ? counts[ord] : old + counts[ord]);
+			}
+		}
+	}
+
+	/**
+	 * The aggregate of everything collected so far.
+	 */
+	public GeoAggregation getAggregation()
+	{
+		flushSegment();
+		List<GeoAggregation.Cluster> clusters = new ArrayList<GeoAggregation.Cluster>();
+		for(int i=0; i<cellCounts.length; i++)
+		{
+			if(cellCounts[i] > 0)
+			{
+				LatLon centroid = LatLon.fromDegrees(cellLat[i] / cellCounts[i], cellLon[i] / cellCounts[i]);
+				clusters.add(new GeoAggregation.Cluster(centroid, cellCounts[i]));
+			}
+		}
+		return new GeoAggregation(total, clusters, featureClasses, states,
+				elevCount, elevCount == 0 ? 0 : elevMin, elevCount == 0 ? 0 : elevMax,
+				elevCount == 0 ? 0 : elevSum / elevCount);
+	}
+}
@@ -0,0 +1,189 @@
+package edu.gwu.spatial;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.util.NumericUtils;
+import org.apache.lucene.util.OpenBitSet;
+import org.apache.lucene.util.ReaderUtil;
+
+/**
+ * Primitive per-segment columns of latitude, longitude and elevation,
+ * indexed by segment doc ID.  Like FieldCache, the columns are uninverted
+ * from the numeric terms once per segment core and shared by every reader
+ * that sees that segment, so result building and bbox checks never touch
+ * stored fields or box values.
+ */
+public class GeoColumns
+{
+	public static final String LAT = "PRIM_LAT_DEC";
+	public static final String LON = "PRIM_LONG_DEC";
+	public static final String ELEV = "ELEV_IN_M";
+
+	private static final Map<Object, GeoColumns> cache =
+		Collections.synchronizedMap(new WeakHashMap<Object, GeoColumns>());
+
+	public final double[] lat;
+	public final double[] lon;
+	public final float[] elev;
+	private final OpenBitSet hasLat;
+	private final OpenBitSet hasLon;
+	private final OpenBitSet hasElev;
+
+	private GeoColumns(IndexReader segment) throws IOException
+	{
+		int maxDoc = segment.maxDoc();
+		lat = new double[maxDoc];
+		lon = new double[maxDoc];
+		elev = new float[maxDoc];
+		hasLat = new OpenBitSet(maxDoc);
+		hasLon = new OpenBitSet(maxDoc);
+		hasElev = new OpenBitSet(maxDoc);
+		uninvert(segment, LAT, lat, null, hasLat);
+		uninvert(segment, LON, lon, null, hasLon);
+		uninvert(segment, ELEV, null, elev, hasElev);
+	}
+
+	/**
+	 * Columns for a single segment reader, built on first use.
+	 */
+	public static GeoColumns get(IndexReader segment) throws IOException
+	{
+		Object key = segment.getCoreCacheKey();
+		synchronized(key)
+		{
+			GeoColumns columns = cache.get(key);
+			if(columns == null)
+			{
+				columns = new GeoColumns(segment);
+				cache.put(key, columns);
+			}
+			return columns;
+		}
+	}
+
+	public boolean hasCoordinates(int doc)
+	{
+		return hasLat.fastGet(doc) && hasLon.fastGet(doc);
+	}
+
+	public boolean hasElevation(int doc)
+	{
+		return hasElev.fastGet(doc);
+	}
+
+	public boolean inside(int doc, double minLat, double maxLat, double minLon, double maxLon)
+	{
+		return hasCoordinates(doc) && lat[doc] >= minLat && lat[doc] <= maxLat
+				&& lon[doc] >= minLon && lon[doc] <= maxLon;
+	}
+
+	private static void uninvert(IndexReader reader, String field, double[] doubles, float[] floats,
+			OpenBitSet docsWithField) throws IOException
+	{
+		//full precision terms of a NumericField have shift 0 and sort first
+		TermEnum terms = reader.terms(new Term(field, NumericUtils.longToPrefixCoded(Long.MIN_VALUE)));
+		TermDocs termDocs = reader.termDocs();
+		try
+		{
+			do
+			{
+				Term term = terms.term();
+				if(term == null || term.field() != field
+						|| term.text().charAt(0) != NumericUtils.SHIFT_START_LONG)
+				{
+					break;
+				}
+				double value = NumericUtils.sortableLongToDouble(NumericUtils.prefixCodedToLong(term.text()));
+				termDocs.seek(terms);
+				while(termDocs.next())
+				{
+					int doc = termDocs.doc();
+					if(doubles != null)
+					{
+						doubles[doc] = value;
+					}else
+					{
+						floats[doc] = (float)value;
+					}
+					docsWithField.fastSet(doc);
+				}
+			}while(terms.next());
+		}finally
+		{
+			termDocs.close();
+			terms.close();
+		}
+	}
+
+	/**
+	 * Maps top-level doc IDs of a searcher onto its segments' columns.
+	 */
+	public static class Lookup
+	{
+		private final GeoColumns[] segments;
+		private final int[] starts;
+		private GeoColumns current;
+		private int local;
+
+		public Lookup(IndexSearcher searcher) throws IOException
+		{
+			List<IndexReader> subs = new ArrayList<IndexReader>();
+			ReaderUtil.gatherSubReaders(subs, searcher.getIndexReader());
+			segments = new GeoColumns[subs.size()];
+			starts = new int[subs.size()];
+			int start = 0;
+			for(int i=0; i<segments.length; i++)
+			{
+				segments[i] = get(subs.get(i));
+				starts[i] = start;
+				start += subs.get(i).maxDoc();
+			}
+		}
+
+		/**
+		 * Positions the lookup on a top-level doc; the getters below then read
+		 * that doc's values.
+		 */
+		public boolean seek(int doc)
+		{
+			if(segments.length == 0)
+			{
+				return false;
+			}
+			int seg = ReaderUtil.subIndex(doc, starts);
+			current = segments[seg];
+			local = doc - starts[seg];
+			return current.hasCoordinates(local);
+		}
+
+		public double lat()
+		{
+			return current.lat[local];
+		}
+
+		public double lon()
+		{
+			return current.lon[local];
+		}
+
+		public boolean hasElevation()
+		{
+			return current.hasElevation(local);
+		}
+
+		public float elev()
+		{
+			return current.elev[local];
+		}
+	}
+}
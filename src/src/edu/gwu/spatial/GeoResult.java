@@ -3,14 +3,47 @@ package edu.gwu.spatial;
 import gov.nasa.worldwind.geom.LatLon;
 
 
+/**
+ * A feature in a result list.  score is the search score, or NaN for
+ * results that were not ranked by a query.  Two results are equal when
+ * they have the same position and display name.
+ */
 public class GeoResult 
 {
 	public final LatLon pos;
 	public final String name;
+	public final float score;
 	public GeoResult(LatLon pos, String name)
+	{
+		this(pos, name, Float.NaN);
+	}
+	
+	public GeoResult(LatLon pos, String name, float score)
 	{
 		this.pos = pos;
 		this.name = name;
+		this.score = score;
+	}
+	
+	@Override
+	public boolean equals(Object o)
+	{
+		if(this == o)
+		{
+			return true;
+		}
+		if(!(o instanceof GeoResult))
+		{
+			return false;
+		}
+		GeoResult other = (GeoResult)o;
+		return pos.equals(other.pos) && name.equals(other.name);
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return 31 * pos.hashCode() + name.hashCode();
 	}
 	
 	@Override
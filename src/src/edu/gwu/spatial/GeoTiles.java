@@ -0,0 +1,108 @@
+package edu.gwu.spatial;
+
+import java.util.List;
+
+/**
+ * Hierarchical quadtree tiles over lat/lon.  Level 1 splits the world into
+ * four tiles, each further level splits every tile into four again, and a
+ * tile is named by one digit ('0'-'3') per level, so every tile's name is a
+ * prefix of all the tiles inside it.  Each feature is indexed with the names
+ * of the tiles containing it at every level.
+ */
+public final class GeoTiles
+{
+	public static final String FIELD = "TILE";
+	public static final int MAX_LEVEL = 16;
+
+	//how many detail-level tiles a viewport spans along its longer side
+	private static final int TILES_ACROSS = 8;
+
+	private GeoTiles()
+	{
+	}
+
+	/**
+	 * Name of the MAX_LEVEL tile containing the point.  Its prefixes name the
+	 * containing tiles at every coarser level.
+	 */
+	public static String encode(double lat, double lon)
+	{
+		char[] tile = new char[MAX_LEVEL];
+		double minLat = -90, maxLat = 90, minLon = -180, maxLon = 180;
+		for(int level=0; level<MAX_LEVEL; level++)
+		{
+			double midLat = (minLat + maxLat) / 2;
+			double midLon = (minLon + maxLon) / 2;
+			int quad = 0;
+			if(lat >= midLat)
+			{
+				quad |= 2;
+				minLat = midLat;
+			}else
+			{
+				maxLat = midLat;
+			}
+			if(lon >= midLon)
+			{
+				quad |= 1;
+				minLon = midLon;
+			}else
+			{
+				maxLon = midLon;
+			}
+			tile[level] = (char)('0' + quad);
+		}
+		return new String(tile);
+	}
+
+	/**
+	 * Deepest level used to cover a bounding box: tiles at that level are
+	 * roughly 1/TILES_ACROSS of the box's longer side.
+	 */
+	static int detailLevel(double minLat, double maxLat, double minLon, double maxLon)
+	{
+		double lonTiles = 360.0 * TILES_ACROSS / Math.max(maxLon - minLon, 1e-9);
+		double latTiles = 180.0 * TILES_ACROSS / Math.max(maxLat - minLat, 1e-9);
+		int level = (int)Math.ceil(Math.log(Math.min(lonTiles, latTiles)) / Math.log(2));
+		return Math.max(1, Math.min(MAX_LEVEL, level));
+	}
+
+	/**
+	 * Covers the box with as few tiles as possible.  Tiles entirely inside
+	 * the box go to interior, possibly at a coarse level; tiles at the detail
+	 * level that straddle the box boundary go to edge and still need an
+	 * exact coordinate check.
+	 */
+	public static void cover(double minLat, double maxLat, double minLon, double maxLon,
+			List<String> interior, List<String> edge)
+	{
+		int detail = detailLevel(minLat, maxLat, minLon, maxLon);
+		cover("", -90, 90, -180, 180, detail, minLat, maxLat, minLon, maxLon, interior, edge);
+	}
+
+	private static void cover(String tile, double tMinLat, double tMaxLat, double tMinLon, double tMaxLon,
+			int detail, double minLat, double maxLat, double minLon, double maxLon,
+			List<String> interior, List<String> edge)
+	{
+		if(tMinLat > maxLat || tMaxLat < minLat || tMinLon > maxLon || tMaxLon < minLon)
+		{
+			return;
+		}
+		if(tile.length() > 0 && tMinLat >= minLat && tMaxLat <= maxLat && tMinLon >= minLon && tMaxLon <= maxLon)
+		{
+			interior.add(tile);
+			return;
+		}
+		if(tile.length() == detail)
+		{
+			edge.add(tile);
+			return;
+		}
+		double midLat = (tMinLat + tMaxLat) / 2;
+		double midLon = (tMinLon + tMaxLon) / 2;
+		cover(tile+'0', tMinLat, midLat, tMinLon, midLon, detail, minLat, maxLat, minLon, maxLon, interior, edge);
+		cover(tile+'1', tMinLat, midLat, midLon, tMaxLon, detail, minLat, maxLat, minLon, maxLon, interior, edge);
+		cover(tile+'2', midLat, tMaxLat, tMinLon, midLon, detail, minLat, maxLat, minLon, maxLon, interior, edge);
+		cover(tile+'3', midLat, tMaxLat, midLon, tMaxLon, detail, minLat, maxLat, minLon, maxLon, interior, edge);
+	}
+}
@@ -0,0 +1,223 @@
+package edu.gwu.spatial;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.queryParser.ParseException;
+
+import edu.gwu.search.ResultPage;
+import edu.gwu.search.SearchTicket;
+
+/**
+ * Keeps one query's results current as the camera moves.  After a view
+ * change only the strips of the new viewport that were not visible before
+ * are searched.  Their hits are merged into the current results, and
+ * results that have left the view are dropped.
+ *
+ * The results are the top matches in view, so they hold every match in
+ * their box scoring above some floor (every match at all when there are
+ * fewer than the limit).  Merging is exact as long as the last merged
+ * result still scores at or above the floors of the old results and of
+ * each strip; otherwise the whole view is searched again.  A pan or zoom
+ * therefore usually costs a search of the newly exposed area only.  A new
+ * query, a refreshed index or a jump to a view that does not overlap the
+ * last one also searches the whole view.
+ *
+ * Not thread safe; use it from one thread, e.g. a SearchScheduler's.
+ */
+public class IncrementalViewportSearch
+{
+	private static final Comparator<GeoResult> BY_SCORE = new Comparator<GeoResult>()
+	{
+		@Override
+		public int compare(GeoResult a, GeoResult b)
+		{
+			return Float.compare(b.score, a.score);
+		}
+	};
+
+	private final USGSDomesticNamesIndex index;
+	private final int limit;
+	private String query;
+	//{minLat, maxLat, minLon, maxLon} of the view the results are for
+	private double[] box;
+	private long generation;
+	private List<GeoResult> results = Collections.emptyList();
+	//every match in box scoring above this is in results
+	private float floor;
+	private int incremental, full;
+
+	public IncrementalViewportSearch(USGSDomesticNamesIndex index, int limit)
+	{
+		this.index = index;
+		this.limit = limit;
+	}
+
+	/**
+	 * Forgets the current results, so the next update searches the whole view.
+	 */
+	public void clear()
+	{
+		query = null;
+		box = null;
+		results = Collections.emptyList();
+	}
+
+	/**
+	 * The best matches for the query in the view {minLat, maxLat, minLon,
+	 * maxLon}, best first and unnumbered.  Results cut short by the ticket's
+	 * deadline are returned but not kept, so the next update covers the same
+	 * ground again.
+	 */
+	public List<GeoResult> update(String query, double[] view, SearchTicket ticket) throws ParseException, IOException
+	{
+		String normalized = ViewportResultCache.normalize(query);
+		long gen = index.getGeneration();
+		if(box != null && normalized.equals(this.query) && gen == generation && overlaps(box, view))
+		{
+			if(merge(normalized, view, ticket))
+			{
+				incremental++;
+				return results;
+			}
+		}
+		full++;
+		ResultPage<GeoResult> page = index.findInBox(normalized, view, limit, ticket);
+		List<GeoResult> found = page.getResults();
+		if(ticket == null || !ticket.isPartial())
+		{
+			this.query = normalized;
+			box = view;
+			generation = gen;
+			results = found;
+			floor = page.getNext() == null ? Float.NEGATIVE_INFINITY : found.get(found.size() - 1).score;
+		}
+		return found;
+	}
+
+	/**
+	 * Searches the exposed strips and merges them into the results.  Returns
+	 * false, keeping nothing, if the merge cannot be trusted to be the top
+	 * matches in view.
+	 */
+	private boolean merge(String query, double[] view, SearchTicket ticket) throws ParseException, IOException
+	{
+		List<GeoResult> merged = new ArrayList<GeoResult>(results.size());
+		for(GeoResult r : results)
+		{
+			if(inside(view, r))
+			{
+				merged.add(r);
+			}
+		}
+		float known = floor;
+		Set<GeoResult> seen = new HashSet<GeoResult>(merged);
+		for(double[] strip : exposed(box, view))
+		{
+			ResultPage<GeoResult> page = index.findInBox(query, strip, limit, ticket);
+			List<GeoResult> hits = page.getResults();
+			if(page.getNext() != null)
+			{
+				known = Math.max(known, hits.get(hits.size() - 1).score);
+			}
+			for(GeoResult r : hits)
+			{
+				//strips share an edge with the kept area
+				if(seen.add(r))
+				{
+					merged.add(r);
+				}
+			}
+		}
+		if(ticket != null && ticket.isPartial())
+		{
+			return false;
+		}
+		Collections.sort(merged, BY_SCORE);
+		float mergedFloor = known;
+		if(merged.size() >= limit)
+		{
+			if(merged.get(limit - 1).score < known)
+			{
+				//matches below the floor we never saw could outrank these
+				return false;
+			}
+			if(merged.size() > limit)
+			{
+				mergedFloor = merged.get(limit - 1).score;
+				merged = new ArrayList<GeoResult>(merged.subList(0, limit));
+			}
+		}else if(known != Float.NEGATIVE_INFINITY)
+		{
+			return false;
+		}
+		box = view;
+		results = merged;
+		floor = mergedFloor;
+		return true;
+	}
+
+	int getIncrementalUpdates()
+	{
+		return incremental;
+	}
+
+	int getFullUpdates()
+	{
+		return full;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "IncrementalViewportSearch("+incremental+" incremental, "+full+" full updates)";
+	}
+
+	/**
+	 * The parts of view outside old: full height strips to the west and
+	 * east, and strips to the south and north across the overlap.  The views
+	 * must overlap.
+	 */
+	static List<double[]> exposed(double[] old, double[] view)
+	{
+		double minLat = Math.max(old[0], view[0]);
+		double maxLat = Math.min(old[1], view[1]);
+		double minLon = Math.max(old[2], view[2]);
+		double maxLon = Math.min(old[3], view[3]);
+		List<double[]> strips = new ArrayList<double[]>(4);
+		if(view[2] < minLon)
+		{
+			strips.add(new double[]{view[0], view[1], view[2], minLon});
+		}
+		if(view[3] > maxLon)
+		{
+			strips.add(new double[]{view[0], view[1], maxLon, view[3]});
+		}
+		if(view[0] < minLat)
+		{
+			strips.add(new double[]{view[0], minLat, minLon, maxLon});
+		}
+		if(view[1] > maxLat)
+		{
+			strips.add(new double[]{maxLat, view[1], minLon, maxLon});
+		}
+		return strips;
+	}
+
+	private static boolean overlaps(double[] a, double[] b)
+	{
+		return a[0] <= b[1] && a[1] >= b[0] && a[2] <= b[3] && a[3] >= b[2];
+	}
+
+	private static boolean inside(double[] box, GeoResult r)
+	{
+		double lat = r.pos.getLatitude().getDegrees();
+		double lon = r.pos.getLongitude().getDegrees();
+		return lat >= box[0] && lat <= box[1] && lon >= box[2] && lon <= box[3];
+	}
+}
@@ -0,0 +1,383 @@
+package edu.gwu.spatial;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.util.ReaderUtil;
+
+/**
+ * Type-ahead completions for FEATURE_NAME terms, answered without going
+ * through IndexSearcher.  The terms are packed in sorted order into one char
+ * array, so a prefix selects a contiguous range found by binary search.
+ * A max segment tree over the weights (document frequency) then yields the
+ * heaviest terms of that range in O(k log k).
+ *
+ * Per-state weights are kept as sparse lists of (term, weight) in term
+ * order, each with its own segment tree, so completions can be scoped to a
+ * STATE_ALPHA.  A suggester reflects the reader it was built from.
+ */
+public class NameSuggester
+{
+	public static final String FIELD = "FEATURE_NAME";
+
+	private final char[] chars;
+	private final int[] offsets;
+	private final Weights all;
+	private final Map<String, Weights> byState = new HashMap<String, Weights>();
+	private final long version;
+
+	private NameSuggester(char[] chars, int[] offsets, Weights all, long version)
+	{
+		this.chars = chars;
+		this.offsets = offsets;
+		this.all = all;
+		this.version = version;
+	}
+
+	public static NameSuggester build(IndexReader top) throws IOException
+	{
+		//state ordinal of every top-level doc
+		List<IndexReader> subs = new ArrayList<IndexReader>();
+		ReaderUtil.gatherSubReaders(subs, top);
+		int[] docState = new int[top.maxDoc()];
+		List<String> states = new ArrayList<String>();
+		Map<String, Integer> stateIds = new HashMap<String, Integer>();
+		int base = 0;
+		for(IndexReader sub : subs)
+		{
+			FieldCache.StringIndex index = FieldCache.DEFAULT.getStringIndex(sub, FeatureKDTree.STATE_ALPHA_KEY);
+			int[] map = new int[index.lookup.length];
+			map[0] = -1;
+			for(int i=1; i<map.length; i++)
+			{
+				Integer id = stateIds.get(index.lookup[i]);
+				if(id == null)
+				{
+					id = states.size();
+					stateIds.put(index.lookup[i], id);
+					states.add(index.lookup[i]);
+				}
+				map[i] = id;
+			}
+			for(int doc=0; doc<sub.maxDoc(); doc++)
+			{
+				docState[base + doc] = map[index.order[doc]];
+			}
+			base += sub.maxDoc();
+		}
+
+		StringBuilder packed = new StringBuilder();
+		IntList offsets = new IntList();
+		IntList weights = new IntList();
+		IntList[] stateTerms = new IntList[states.size()];
+		IntList[] stateWeights = new IntList[states.size()];
+		for(int i=0; i<states.size(); i++)
+		{
+			stateTerms[i] = new IntList();
+			stateWeights[i] = new IntList();
+		}
+		int[] counts = new int[states.size()];
+		IntList touched = new IntList();
+
+		TermEnum terms = top.terms(new Term(FIELD, ""));
+		TermDocs termDocs = top.termDocs();
+		try
+		{
+			do
+			{
+				Term term = terms.term();
+				if(term == null || term.field() != FIELD)
+				{
+					break;
+				}
+				int termId = offsets.size;
+				offsets.add(packed.length());
+				packed.append(term.text());
+
+				int weight = 0;
+				termDocs.seek(terms);
+				while(termDocs.next())
+				{
+					weight++;
+					int state = docState[termDocs.doc()];
+					if(state >= 0 && counts[state]++ == 0)
+					{
+						touched.add(state);
+					}
+				}
+				weights.add(weight);
+				for(int i=0; i<touched.size; i++)
+				{
+					int state = touched.values[i];
+					stateTerms[state].add(termId);
+					stateWeights[state].add(counts[state]);
+					counts[state] = 0;
+				}
+				touched.size = 0;
+			}while(terms.next());
+		}finally
+		{
+			termDocs.close();
+			terms.close();
+		}
+		offsets.add(packed.length());
+
+		char[] chars = new char[packed.length()];
+		packed.getChars(0, chars.length, chars, 0);
+		NameSuggester suggester = new NameSuggester(chars, offsets.toArray(),
+				new Weights(null, weights.toArray()), top.getVersion());
+		for(int i=0; i<states.size(); i++)
+		{
+			suggester.byState.put(states.get(i).toUpperCase(),
+					new Weights(stateTerms[i].toArray(), stateWeights[i].toArray()));
+		}
+		return suggester;
+	}
+
+	public long getVersion()
+	{
+		return version;
+	}
+
+	public int size()
+	{
+		return offsets.length - 1;
+	}
+
+	/**
+	 * Up to k terms starting with prefix, most frequent first.  state is an
+	 * optional STATE_ALPHA (e.g. "AZ") to count only features in that state.
+	 */
+	public List<String> suggest(String prefix, int k, String state)
+	{
+		List<String> result = new ArrayList<String>(k);
+		String p = prefix.toLowerCase();
+		Weights w = all;
+		if(state != null)
+		{
+			w = byState.get(state.toUpperCase());
+			if(w == null)
+			{
+				return result;
+			}
+		}
+		int lo = lowerBound(p);
+		int hi = upperBound(p);
+		if(w.termIds != null)
+		{
+			lo = w.lowerSlot(lo);
+			hi = w.lowerSlot(hi);
+		}
+		if(lo >= hi || k <= 0)
+		{
+			return result;
+		}
+
+		//best-first over ranges, keyed by each range's heaviest slot
+		PriorityQueue<long[]> ranges = new PriorityQueue<long[]>(k * 2, new Comparator<long[]>()
+		{
+			@Override
+			public int compare(long[] a, long[] b)
+			{
+				return b[0] < a[0] ? -1 : (b[0] > a[0] ? 1 : 0);
+			}
+		});
+		int best = w.argMax(lo, hi);
+		ranges.add(new long[]{w.weights[best], best, lo, hi});
+		while(!ranges.isEmpty() && result.size() < k)
+		{
+			long[] r = ranges.poll();
+			int slot = (int)r[1];
+			result.add(term(w.termIds == null ? slot : w.termIds[slot]));
+			if(r[2] < slot)
+			{
+				int m = w.argMax((int)r[2], slot);
+				ranges.add(new long[]{w.weights[m], m, r[2], slot});
+			}
+			if(slot + 1 < r[3])
+			{
+				int m = w.argMax(slot + 1, (int)r[3]);
+				ranges.add(new long[]{w.weights[m], m, slot + 1, r[3]});
+			}
+		}
+		return result;
+	}
+
+	private String term(int id)
+	{
+		return new String(chars, offsets[id], offsets[id + 1] - offsets[id]);
+	}
+
+	private int compareTerm(int id, String s)
+	{
+		int start = offsets[id];
+		int len = offsets[id + 1] - start;
+		int n = Math.min(len, s.length());
+		for(int i=0; i<n; i++)
+		{
+			int c = chars[start + i] - s.charAt(i);
+			if(c != 0)
+			{
+				return c;
+			}
+		}
+		return len - s.length();
+	}
+
+	private boolean startsWith(int id, String prefix)
+	{
+		int start = offsets[id];
+		if(offsets[id + 1] - start < prefix.length())
+		{
+			return false;
+		}
+		for(int i=0; i<prefix.length(); i++)
+		{
+			if(chars[start + i] != prefix.charAt(i))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	//first term >= prefix
+	private int lowerBound(String prefix)
+	{
+		int lo = 0, hi = size();
+		while(lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if(compareTerm(mid, prefix) < 0)
+			{
+				lo = mid + 1;
+			}else
+			{
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	//first term after lowerBound that does not start with prefix
+	private int upperBound(String prefix)
+	{
+		int lo = lowerBound(prefix), hi = size();
+		while(lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if(startsWith(mid, prefix))
+			{
+				lo = mid + 1;
+			}else
+			{
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Weights over term slots plus a max segment tree for argMax over a range.
+	 * termIds maps slots to term ids for the sparse per-state lists; it is
+	 * null when slot and term id are the same.
+	 */
+	private static class Weights
+	{
+		final int[] termIds;
+		final int[] weights;
+		private final int[] tree;
+		private final int n;
+
+		Weights(int[] termIds, int[] weights)
+		{
+			this.termIds = termIds;
+			this.weights = weights;
+			n = weights.length;
+			tree = new int[2 * Math.max(1, n)];
+			for(int i=0; i<n; i++)
+			{
+				tree[n + i] = i;
+			}
+			for(int i=n-1; i>0; i--)
+			{
+				tree[i] = heavier(tree[2*i], tree[2*i+1]);
+			}
+		}
+
+		private int heavier(int a, int b)
+		{
+			return weights[b] > weights[a] ? b : a;
+		}
+
+		//slot of the heaviest entry in [lo, hi), hi > lo
+		int argMax(int lo, int hi)
+		{
+			int best = lo;
+			for(lo += n, hi += n; lo < hi; lo >>= 1, hi >>= 1)
+			{
+				if((lo & 1) == 1)
+				{
+					best = heavier(best, tree[lo++]);
+				}
+				if((hi & 1) == 1)
+				{
+					best = heavier(best, tree[--hi]);
+				}
+			}
+			return best;
+		}
+
+		//first slot whose term id is >= termId
+		int lowerSlot(int termId)
+		{
+			int lo = 0, hi = termIds.length;
+			while(lo < hi)
+			{
+				int mid = (lo + hi) >>> 1;
+				if(termIds[mid] < termId)
+				{
+					lo = mid + 1;
+				}else
+				{
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+	}
+
+	private static class IntList
+	{
+		int[] values = new int[16];
+		int size;
+
+		void add(int v)
+		{
+			if(size == values.length)
+			{
+				int[] grown = new int[size * 2];
+				System.arraycopy(values, 0, grown, 0, size);
+				values = grown;
+			}
+			values[size++] = v;
+		}
+
+		int[] toArray()
+		{
+			int[] a = new int[size];
+			System.arraycopy(values, 0, a, 0, size);
+			return a;
+		}
+	}
+}
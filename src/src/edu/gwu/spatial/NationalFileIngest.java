@@ -0,0 +1,549 @@
+package edu.gwu.spatial;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.index.FieldInfo.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+
+import edu.gwu.search.IndexMetrics;
+import edu.gwu.spatial.NationalFileReader.Row;
+import edu.gwu.spatial.NationalFileReader.RowBatch;
+
+/**
+ * Pipelined ingest of a USGS Domestic Names file.  One reader thread cuts the
+ * memory-mapped file into batches of row offsets, N worker threads parse the
+ * rows and build Documents, and every worker adds to the same (thread-safe)
+ * IndexWriter.  Batches are recycled through a bounded free list, so the
+ * reader cannot run ahead of indexing and steady state allocates no batches.
+ *
+ * With a ShardScheme, each row goes to the writer of its shard, and the
+ * bounding box of every shard's rows is tracked for the caller to commit.
+ */
+public class NationalFileIngest
+{
+	private static final RowBatch END_OF_FILE = new RowBatch(0);
+
+	private final IndexWriter[] writers;
+	private final ShardScheme scheme;
+	private final int workers;
+	private final int batchSize;
+	private final BlockingQueue<RowBatch> batches;
+	private final BlockingQueue<RowBatch> free;
+	private final FeatureSnapshot snapshot;
+	private final AtomicLong rows = new AtomicLong();
+	private final AtomicLong added = new AtomicLong();
+	private final AtomicLong updated = new AtomicLong();
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	//minLat, maxLat, minLon, maxLon per shard
+	private final double[] bounds;
+	private volatile IndexMetrics metrics;
+
+	public NationalFileIngest(IndexWriter writer, int workers)
+	{
+		this(writer, workers, null);
+	}
+
+	/**
+	 * With a snapshot of the existing index, rows are matched on FEATURE_ID:
+	 * unchanged rows are skipped, changed rows replace their old document and
+	 * only unknown features are added.
+	 */
+	public NationalFileIngest(IndexWriter writer, int workers, FeatureSnapshot snapshot)
+	{
+		this(writer, workers, snapshot, 1000, workers * 4);
+	}
+
+	public NationalFileIngest(IndexWriter writer, int workers, FeatureSnapshot snapshot, int batchSize, int queuedBatches)
+	{
+		this(new IndexWriter[]{writer}, null, workers, snapshot, batchSize, queuedBatches);
+	}
+
+	/**
+	 * Routes rows to one writer per shard; writers must be in shard order.
+	 * A changed feature that moved to another shard is deleted from the
+	 * others.
+	 */
+	public NationalFileIngest(IndexWriter[] writers, ShardScheme scheme, int workers, FeatureSnapshot snapshot)
+	{
+		this(writers, scheme, workers, snapshot, 1000, workers * 4);
+	}
+
+	public NationalFileIngest(IndexWriter[] writers, ShardScheme scheme, int workers, FeatureSnapshot snapshot, int batchSize, int queuedBatches)
+	{
+		this.writers = writers;
+		this.scheme = scheme;
+		this.bounds = emptyBounds(writers.length);
+		this.snapshot = snapshot;
+		this.workers = Math.max(1, workers);
+		this.batchSize = batchSize;
+		int queued = Math.max(1, queuedBatches);
+		this.batches = new ArrayBlockingQueue<RowBatch>(queued + this.workers);
+		this.free = new ArrayBlockingQueue<RowBatch>(queued + this.workers);
+		for(int i=0; i<queued + this.workers; i++)
+		{
+			free.add(new RowBatch(batchSize));
+		}
+	}
+
+	/**
+	 * Indexes every data line of the file and returns the number of rows read.
+	 * The writer is left open; committing or closing it is up to the caller.
+	 */
+	public long run(File file) throws IOException
+	{
+		NationalFileReader reader = new NationalFileReader(file);
+		try
+		{
+			List<Thread> threads = new ArrayList<Thread>(workers);
+			List<Worker> running = new ArrayList<Worker>(workers);
+			for(int i=0; i<workers; i++)
+			{
+				Worker w = new Worker(reader);
+				running.add(w);
+				Thread t = new Thread(w, "ingest-worker-"+i);
+				t.setDaemon(true);
+				t.start();
+				threads.add(t);
+			}
+
+			try
+			{
+				readBatches(reader);
+			}finally
+			{
+				for(int i=0; i<workers; i++)
+				{
+					endOfFile(threads);
+				}
+				for(Thread t : threads)
+				{
+					joinQuietly(t);
+				}
+			}
+
+			for(Worker w : running)
+			{
+				w.addBoundsTo(bounds);
+			}
+			Throwable t = failure.get();
+			if(t instanceof IOException)
+			{
+				throw (IOException)t;
+			}else if(t != null)
+			{
+				throw new IOException("Ingest worker failed", t);
+			}
+			return rows.get();
+		}finally
+		{
+			reader.close();
+		}
+	}
+
+	/**
+	 * Counts rows in the metrics' ingest rate as each batch is indexed.
+	 */
+	public void setMetrics(IndexMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+
+	public long getRowsRead()
+	{
+		return rows.get();
+	}
+
+	public long getRowsAdded()
+	{
+		return added.get();
+	}
+
+	public long getRowsUpdated()
+	{
+		return updated.get();
+	}
+
+	public long getRowsUnchanged()
+	{
+		return rows.get() - added.get() - updated.get();
+	}
+
+	/**
+	 * {minLat, maxLat, minLon, maxLon} of the rows added or changed in a
+	 * shard by run(), or null if it got none.
+	 */
+	public double[] getBounds(int shard)
+	{
+		int b = shard * 4;
+		if(bounds[b] > bounds[b + 1])
+		{
+			return null;
+		}
+		return new double[]{bounds[b], bounds[b + 1], bounds[b + 2], bounds[b + 3]};
+	}
+
+	private static double[] emptyBounds(int shards)
+	{
+		double[] b = new double[shards * 4];
+		for(int i=0; i<b.length; i+=2)
+		{
+			b[i] = Double.POSITIVE_INFINITY;
+			b[i + 1] = Double.NEGATIVE_INFINITY;
+		}
+		return b;
+	}
+
+	private void readBatches(NationalFileReader reader) throws IOException
+	{
+		while(failure.get() == null)
+		{
+			RowBatch batch = takeQuietly(free);
+			if(batch == null)
+			{
+				return;
+			}
+			if(!reader.nextBatch(batch))
+			{
+				free.add(batch);
+				return;
+			}
+			if(!putQuietly(batch))
+			{
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Takes a free batch, or gives up and returns null once a worker has
+	 * failed, so the reader cannot wait forever on batches no worker returns.
+	 */
+	private RowBatch takeQuietly(BlockingQueue<RowBatch> queue) throws IOException
+	{
+		try
+		{
+			RowBatch batch = queue.poll(100, TimeUnit.MILLISECONDS);
+			while(batch == null)
+			{
+				if(failure.get() != null)
+				{
+					return null;
+				}
+				batch = queue.poll(100, TimeUnit.MILLISECONDS);
+			}
+			return batch;
+		}catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading rows");
+		}
+	}
+
+	/**
+	 * Queues the batch, or gives up and returns false once a worker has
+	 * failed, so a full queue no worker is draining cannot block the reader.
+	 */
+	private boolean putQuietly(RowBatch batch) throws IOException
+	{
+		try
+		{
+			while(!batches.offer(batch, 100, TimeUnit.MILLISECONDS))
+			{
+				if(failure.get() != null)
+				{
+					return false;
+				}
+			}
+			return true;
+		}catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while queueing rows");
+		}
+	}
+
+	//queues one end marker, unless every worker has already stopped
+	private void endOfFile(List<Thread> threads) throws IOException
+	{
+		try
+		{
+			while(!batches.offer(END_OF_FILE, 100, TimeUnit.MILLISECONDS))
+			{
+				if(!isAnyAlive(threads))
+				{
+					return;
+				}
+			}
+		}catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while queueing rows");
+		}
+	}
+
+	private static boolean isAnyAlive(List<Thread> threads)
+	{
+		for(Thread t : threads)
+		{
+			if(t.isAlive())
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void joinQuietly(Thread t)
+	{
+		try
+		{
+			t.join();
+		}catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Builds Documents for one thread, reusing the same Document and Field
+	 * instances for every row.
+	 */
+	static class DocumentBuilder
+	{
+		private final String[] header;
+		private final int[] kinds;
+		private final Field[] textFields;
+		private final NumericField[] numericFields;
+		private final Field[] tileFields = new Field[GeoTiles.MAX_LEVEL];
+		final int latColumn;
+		final int lonColumn;
+		private final int classColumn;
+		final int stateColumn;
+		private final Field classKey;
+		private final Field stateKey;
+		final int idColumn;
+		private final Field featureId;
+		private final NumericField rowHash;
+		private final Document doc = new Document();
+
+		DocumentBuilder(NationalFileReader reader)
+		{
+			header = reader.getHeader();
+			kinds = new int[header.length];
+			textFields = new Field[header.length];
+			numericFields = new NumericField[header.length];
+			for(int i=0; i<header.length; i++)
+			{
+				kinds[i] = reader.getColumnKind(i);
+				if(kinds[i] == NationalFileReader.NUMERIC)
+				{
+					numericFields[i] = new NumericField(header[i], Field.Store.YES, true);
+				}else if(kinds[i] == NationalFileReader.TEXT)
+				{
+					textFields[i] = new Field(header[i], "", Field.Store.YES, Field.Index.ANALYZED);
+				}
+			}
+			for(int i=0; i<tileFields.length; i++)
+			{
+				tileFields[i] = new Field(GeoTiles.FIELD, "", Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS);
+				tileFields[i].setIndexOptions(IndexOptions.DOCS_ONLY);
+			}
+			latColumn = reader.findColumn("PRIM_LAT_DEC");
+			lonColumn = reader.findColumn("PRIM_LONG_DEC");
+			classColumn = reader.findColumn("FEATURE_CLASS");
+			stateColumn = reader.findColumn("STATE_ALPHA");
+			classKey = keyField(FeatureKDTree.FEATURE_CLASS_KEY);
+			stateKey = keyField(FeatureKDTree.STATE_ALPHA_KEY);
+			idColumn = reader.findColumn(FeatureSnapshot.FEATURE_ID);
+			featureId = new Field(FeatureSnapshot.FEATURE_ID, "", Field.Store.YES, Field.Index.NOT_ANALYZED_NO_NORMS);
+			featureId.setIndexOptions(IndexOptions.DOCS_ONLY);
+			//only ever read back through FieldCache, so one full-precision term is enough
+			rowHash = new NumericField(FeatureSnapshot.ROW_HASH, Integer.MAX_VALUE, Field.Store.NO, true);
+		}
+		
+		//untokenized copy of a column, for exact filtering and per-value counts
+		private static Field keyField(String name)
+		{
+			Field f = new Field(name, "", Field.Store.NO, Field.Index.NOT_ANALYZED_NO_NORMS);
+			f.setIndexOptions(IndexOptions.DOCS_ONLY);
+			return f;
+		}
+
+		Document build(Row row)
+		{
+			doc.getFields().clear();
+			if(idColumn >= 0 && !row.isEmpty(idColumn))
+			{
+				featureId.setValue(row.getString(idColumn));
+				doc.add(featureId);
+			}
+			rowHash.setLongValue(row.hash());
+			doc.add(rowHash);
+			for(int i=0; i<header.length && i<row.getFieldCount(); i++)
+			{
+				if(kinds[i] == NationalFileReader.IGNORED || row.isEmpty(i))
+				{
+					continue;
+				}
+				if(kinds[i] == NationalFileReader.NUMERIC)
+				{
+					numericFields[i].setDoubleValue(row.getDouble(i));
+					doc.add(numericFields[i]);
+				}else
+				{
+					String value = row.getString(i);
+					textFields[i].setValue(value);
+					doc.add(textFields[i]);
+					if(i == classColumn)
+					{
+						classKey.setValue(value);
+						doc.add(classKey);
+					}else if(i == stateColumn)
+					{
+						stateKey.setValue(value);
+						doc.add(stateKey);
+					}
+				}
+			}
+			if(latColumn >= 0 && lonColumn >= 0 && !row.isEmpty(latColumn) && !row.isEmpty(lonColumn))
+			{
+				String tile = GeoTiles.encode(row.getDouble(latColumn), row.getDouble(lonColumn));
+				for(int i=0; i<tileFields.length; i++)
+				{
+					tileFields[i].setValue(tile.substring(0, i + 1));
+					doc.add(tileFields[i]);
+				}
+			}
+			return doc;
+		}
+	}
+
+	private class Worker implements Runnable
+	{
+		private final DocumentBuilder builder;
+		private final Row row;
+		private final double[] shardBounds = emptyBounds(writers.length);
+
+		Worker(NationalFileReader reader)
+		{
+			this.builder = new DocumentBuilder(reader);
+			this.row = reader.newRow();
+		}
+
+		//the row's shard, widening that shard's bounds to include the row
+		private int shard()
+		{
+			double lat = Double.NaN, lon = Double.NaN;
+			if(builder.latColumn >= 0 && builder.lonColumn >= 0
+					&& !row.isEmpty(builder.latColumn) && !row.isEmpty(builder.lonColumn))
+			{
+				lat = row.getDouble(builder.latColumn);
+				lon = row.getDouble(builder.lonColumn);
+			}
+			int shard = 0;
+			if(scheme != null)
+			{
+				String state = builder.stateColumn < 0 || row.isEmpty(builder.stateColumn)
+						? null : row.getString(builder.stateColumn);
+				shard = scheme.shard(state, lon);
+			}
+			if(!Double.isNaN(lat))
+			{
+				int b = shard * 4;
+				shardBounds[b] = Math.min(shardBounds[b], lat);
+				shardBounds[b + 1] = Math.max(shardBounds[b + 1], lat);
+				shardBounds[b + 2] = Math.min(shardBounds[b + 2], lon);
+				shardBounds[b + 3] = Math.max(shardBounds[b + 3], lon);
+			}
+			return shard;
+		}
+
+		void addBoundsTo(double[] into)
+		{
+			for(int i=0; i<into.length; i+=2)
+			{
+				into[i] = Math.min(into[i], shardBounds[i]);
+				into[i + 1] = Math.max(into[i + 1], shardBounds[i + 1]);
+			}
+		}
+
+		private void index(RowBatch batch)
+		{
+			try
+			{
+				for(int i=0; i<batch.size(); i++)
+				{
+					batch.load(i, row);
+					if(snapshot == null || builder.idColumn < 0 || row.isEmpty(builder.idColumn))
+					{
+						writers[shard()].addDocument(builder.build(row));
+						added.incrementAndGet();
+						continue;
+					}
+					String id = row.getString(builder.idColumn);
+					int slot = snapshot.mark(id);
+					if(slot == FeatureSnapshot.NEW)
+					{
+						writers[shard()].addDocument(builder.build(row));
+						added.incrementAndGet();
+					}else if(snapshot.rowHash(slot) != row.hash())
+					{
+						Term key = new Term(FeatureSnapshot.FEATURE_ID, id);
+						int shard = shard();
+						writers[shard].updateDocument(key, builder.build(row));
+						for(int w=0; w<writers.length; w++)
+						{
+							if(w != shard)
+							{
+								writers[w].deleteDocuments(key);
+							}
+						}
+						updated.incrementAndGet();
+					}
+				}
+				rows.addAndGet(batch.size());
+				if(metrics != null)
+				{
+					metrics.rowsIngested(batch.size());
+				}
+			}catch(Throwable t)
+			{
+				failure.compareAndSet(null, t);
+			}
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				RowBatch batch = batches.take();
+				while(batch != END_OF_FILE)
+				{
+					if(failure.get() == null)
+					{
+						index(batch);
+					}
+					//keep draining after a failure so the reader never blocks
+					free.put(batch);
+					batch = batches.take();
+				}
+			}catch(InterruptedException e)
+			{
+				failure.compareAndSet(null, e);
+			}
+		}
+	}
+}
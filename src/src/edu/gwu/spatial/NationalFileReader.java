@@ -0,0 +1,381 @@
+package edu.gwu.spatial;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Memory-mapped reader for the pipe-delimited USGS Domestic Names file.
+ * Rows are located by scanning the mapped bytes for line ends, fields by
+ * scanning for '|'.  Nothing is copied until a caller asks for a String,
+ * and numeric columns are parsed straight from the bytes.
+ *
+ * The header is resolved into column kinds once, when the file is opened.
+ * The reader itself is meant for a single thread; the RowBatch and Row
+ * objects it hands out can be parsed on other threads.
+ */
+public class NationalFileReader implements Closeable
+{
+	public static final int IGNORED = 0;
+	public static final int NUMERIC = 1;
+	public static final int TEXT = 2;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int WINDOW = 256 << 20;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long length;
+	private final String[] header;
+	private final int[] kinds;
+
+	private ByteBuffer segment;
+	private long segmentStart;
+	private int pos;
+
+	public NationalFileReader(File f) throws IOException
+	{
+		file = new RandomAccessFile(f, "r");
+		channel = file.getChannel();
+		length = channel.size();
+		map(0);
+
+		int end = findLineEnd(0);
+		if(end < 0)
+		{
+			end = segment.limit();
+		}
+		byte[] headerBytes = new byte[trimCR(0, end)];
+		segment.get(headerBytes);
+		header = new String(headerBytes, UTF8).split("\\|");
+		kinds = new int[header.length];
+		for(int i=0; i<header.length; i++)
+		{
+			kinds[i] = columnKind(header[i]);
+		}
+		pos = Math.min(end + 1, segment.limit());
+	}
+
+	/**
+	 * Same classification the original line-splitting loop applied to every
+	 * cell, done once per column.
+	 */
+	static int columnKind(String curHeader)
+	{
+		if(curHeader.contains("LAT_DEC") || curHeader.contains("LONG_DEC")
+				|| curHeader.contains("ELEV"))
+		{
+			return NUMERIC;
+		}else if(curHeader.contains("STATE_ALPHA") || curHeader.contains("FEATURE_NAME")
+				||curHeader.contains("COUNTY_NAME") || curHeader.contains("MAP_NAME")
+				|| curHeader.contains("FEATURE_CLASS"))
+		{
+			return TEXT;
+		}
+		return IGNORED;
+	}
+
+	public String[] getHeader()
+	{
+		return header.clone();
+	}
+
+	public int getColumnKind(int col)
+	{
+		return kinds[col];
+	}
+
+	public int getColumnCount()
+	{
+		return header.length;
+	}
+
+	public int findColumn(String name)
+	{
+		for(int i=0; i<header.length; i++)
+		{
+			if(header[i].equals(name))
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Fills the batch with up to batch.capacity() rows.  All rows in one batch
+	 * come from the same mapped window.  Returns false once the file is
+	 * exhausted.  Throws IOException for a row longer than the window.
+	 */
+	public boolean nextBatch(RowBatch batch) throws IOException
+	{
+		batch.clear();
+		while(batch.size < batch.starts.length)
+		{
+			if(pos >= segment.limit())
+			{
+				if(segmentStart + pos >= length)
+				{
+					break;
+				}
+				if(batch.size > 0)
+				{
+					break;
+				}
+				map(segmentStart + pos);
+			}
+			int end = findLineEnd(pos);
+			if(end < 0)
+			{
+				if(segmentStart + segment.limit() < length)
+				{
+					//row runs past the window; remap starting at this row
+					if(batch.size > 0)
+					{
+						break;
+					}
+					if(pos == 0)
+					{
+						throw new IOException("Row at byte "+segmentStart+" is longer than the "+(WINDOW >> 20)
+								+" MB mapping window");
+					}
+					map(segmentStart + pos);
+					continue;
+				}
+				end = segment.limit();
+			}
+			int stop = trimCR(pos, end);
+			if(stop > pos)
+			{
+				batch.starts[batch.size] = pos;
+				batch.ends[batch.size] = stop;
+				batch.size++;
+			}
+			pos = end + 1;
+		}
+		batch.buffer = segment;
+		return batch.size > 0;
+	}
+
+	public Row newRow()
+	{
+		return new Row(header.length);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+		file.close();
+	}
+
+	private void map(long start) throws IOException
+	{
+		long size = Math.min(WINDOW, length - start);
+		segment = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+		segmentStart = start;
+		pos = 0;
+	}
+
+	private int findLineEnd(int from)
+	{
+		int limit = segment.limit();
+		for(int i=from; i<limit; i++)
+		{
+			if(segment.get(i) == '\n')
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int trimCR(int start, int end)
+	{
+		if(end > start && segment.get(end - 1) == '\r')
+		{
+			return end - 1;
+		}
+		return end;
+	}
+
+	/**
+	 * A reusable set of row offsets into one mapped window.
+	 */
+	public static class RowBatch
+	{
+		ByteBuffer buffer;
+		final int[] starts;
+		final int[] ends;
+		int size;
+
+		public RowBatch(int capacity)
+		{
+			starts = new int[capacity];
+			ends = new int[capacity];
+		}
+
+		public int size()
+		{
+			return size;
+		}
+
+		void clear()
+		{
+			size = 0;
+			buffer = null;
+		}
+
+		public void load(int i, Row row)
+		{
+			row.set(buffer, starts[i], ends[i]);
+		}
+	}
+
+	/**
+	 * Field offsets of a single row.  Reused from row to row; one per thread.
+	 */
+	public static class Row
+	{
+		private ByteBuffer buffer;
+		private final int[] fieldStart;
+		private final int[] fieldEnd;
+		private int fields;
+		private byte[] scratch = new byte[256];
+
+		Row(int columns)
+		{
+			fieldStart = new int[columns];
+			fieldEnd = new int[columns];
+		}
+
+		void set(ByteBuffer buf, int start, int end)
+		{
+			buffer = buf;
+			fields = 0;
+			int fieldBegin = start;
+			for(int i=start; i<end && fields < fieldStart.length; i++)
+			{
+				if(buf.get(i) == '|')
+				{
+					fieldStart[fields] = fieldBegin;
+					fieldEnd[fields] = i;
+					fields++;
+					fieldBegin = i + 1;
+				}
+			}
+			if(fields < fieldStart.length)
+			{
+				fieldStart[fields] = fieldBegin;
+				fieldEnd[fields] = end;
+				fields++;
+			}
+		}
+
+		public int getFieldCount()
+		{
+			return fields;
+		}
+
+		public boolean isEmpty(int col)
+		{
+			return col >= fields || fieldEnd[col] <= fieldStart[col];
+		}
+
+		public String getString(int col)
+		{
+			int start = fieldStart[col];
+			int len = fieldEnd[col] - start;
+			if(len > scratch.length)
+			{
+				scratch = new byte[len];
+			}
+			for(int i=0; i<len; i++)
+			{
+				scratch[i] = buffer.get(start + i);
+			}
+			return new String(scratch, 0, len, UTF8);
+		}
+
+		/**
+		 * Hashes the raw bytes of the whole row.
+		 */
+		public long hash()
+		{
+			if(fields == 0)
+			{
+				return 0;
+			}
+			//FNV-1a, 64 bit
+			long h = 0xcbf29ce484222325L;
+			int end = fieldEnd[fields - 1];
+			for(int i=fieldStart[0]; i<end; i++)
+			{
+				h ^= buffer.get(i) & 0xff;
+				h *= 0x100000001b3L;
+			}
+			return h;
+		}
+
+		/**
+		 * Parses a plain decimal number ("-112.0740373", "332") from the row
+		 * bytes.  Anything unusual (exponents, very long mantissas) falls back
+		 * to Double.parseDouble.
+		 */
+		public double getDouble(int col)
+		{
+			int i = fieldStart[col];
+			int end = fieldEnd[col];
+			boolean negative = false;
+			byte b = buffer.get(i);
+			if(b == '-' || b == '+')
+			{
+				negative = b == '-';
+				i++;
+			}
+			long mantissa = 0;
+			int digits = 0;
+			int fraction = -1;
+			for(; i<end; i++)
+			{
+				b = buffer.get(i);
+				if(b >= '0' && b <= '9')
+				{
+					mantissa = mantissa * 10 + (b - '0');
+					digits++;
+					if(fraction >= 0)
+					{
+						fraction++;
+					}
+				}else if(b == '.' && fraction < 0)
+				{
+					fraction = 0;
+				}else
+				{
+					return Double.parseDouble(getString(col).trim());
+				}
+			}
+			if(digits == 0 || digits > 15 || fraction > 22)
+			{
+				return Double.parseDouble(getString(col).trim());
+			}
+			//both operands are exact, so the single division rounds correctly
+			double value = fraction > 0 ? mantissa / POWERS_OF_TEN[fraction] : mantissa;
+			return negative ? -value : value;
+		}
+	}
+
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static
+	{
+		POWERS_OF_TEN[0] = 1.0;
+		for(int i=1; i<POWERS_OF_TEN.length; i++)
+		{
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1] * 10.0;
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package edu.gwu.spatial;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.swing.AbstractListModel;
+
+/**
+ * List model whose rows are replaced or extended in one step, firing a
+ * single event per change instead of one per element as DefaultListModel's
+ * clear() and addElement() do.  Rows that did not change at the top of the
+ * list are not reported.  Use on the EDT only.
+ */
+public class ResultListModel extends AbstractListModel
+{
+	private static final long serialVersionUID = 1L;
+
+	private List<Object> rows = Collections.emptyList();
+
+	@Override
+	public int getSize()
+	{
+		return rows.size();
+	}
+
+	@Override
+	public Object getElementAt(int index)
+	{
+		return rows.get(index);
+	}
+
+	public void setRows(List<?> newRows)
+	{
+		List<Object> old = rows;
+		rows = new ArrayList<Object>(newRows);
+		int common = Math.min(old.size(), rows.size());
+		int same = 0;
+		while(same < common && old.get(same).equals(rows.get(same)))
+		{
+			same++;
+		}
+		if(same < common)
+		{
+			fireContentsChanged(this, same, common - 1);
+		}
+		if(rows.size() > old.size())
+		{
+			fireIntervalAdded(this, old.size(), rows.size() - 1);
+		}else if(rows.size() < old.size())
+		{
+			fireIntervalRemoved(this, rows.size(), old.size() - 1);
+		}
+	}
+
+	public void addRows(List<?> more)
+	{
+		if(more.isEmpty())
+		{
+			return;
+		}
+		int first = rows.size();
+		if(first == 0)
+		{
+			rows = new ArrayList<Object>(more.size());
+		}
+		rows.addAll(more);
+		fireIntervalAdded(this, first, rows.size() - 1);
+	}
+}
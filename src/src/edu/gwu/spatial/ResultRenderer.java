@@ -0,0 +1,139 @@
+package edu.gwu.spatial;
+
+import gov.nasa.worldwind.avlist.AVKey;
+import gov.nasa.worldwind.geom.Position;
+import gov.nasa.worldwind.layers.RenderableLayer;
+import gov.nasa.worldwind.render.GlobeAnnotation;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * Shows search results as annotations on a layer and as rows in a list.
+ *
+ * show() may be called from any thread.  The change is applied on the EDT,
+ * where WorldWind's AWT canvas also renders, as one batch to both the layer
+ * and the list model; when several calls arrive before the EDT gets to them
+ * only the newest is applied.  Markers are diffed against what is on the
+ * map by position and name, ignoring the "12. " rank prefix, so a result
+ * that stays in view keeps its annotation and only has its text updated.
+ * Annotations that leave the map go back to a bounded pool for reuse.
+ */
+public class ResultRenderer
+{
+	private static final int MAX_POOLED = 256;
+	private static final double ELEVATION = 5;
+	private static final Pattern RANK = Pattern.compile("^\\d+\\. ");
+
+	private final RenderableLayer layer;
+	private final ResultListModel model;
+	private final AtomicReference<Update> pending = new AtomicReference<Update>();
+	//only touched on the EDT
+	private Map<GeoResult, GlobeAnnotation> shown = new HashMap<GeoResult, GlobeAnnotation>();
+	private final ArrayDeque<GlobeAnnotation> pool = new ArrayDeque<GlobeAnnotation>();
+
+	public ResultRenderer(RenderableLayer layer, ResultListModel model)
+	{
+		this.layer = layer;
+		this.model = model;
+	}
+
+	/**
+	 * Replaces the markers on the map and the rows in the list, then runs
+	 * onApplied (which may be null) on the EDT.  onApplied is skipped along
+	 * with the rest of an update that a newer one replaced.
+	 */
+	public void show(List<GeoResult> markers, List<?> rows, Runnable onApplied)
+	{
+		if(pending.getAndSet(new Update(markers, rows, onApplied)) == null)
+		{
+			SwingUtilities.invokeLater(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					apply(pending.getAndSet(null));
+				}
+			});
+		}
+	}
+
+	private void apply(Update update)
+	{
+		Map<GeoResult, GlobeAnnotation> next = new HashMap<GeoResult, GlobeAnnotation>(update.markers.size() * 2);
+		boolean changed = false;
+		for(GeoResult marker : update.markers)
+		{
+			GeoResult key = key(marker);
+			if(next.containsKey(key))
+			{
+				continue;
+			}
+			GlobeAnnotation a = shown.remove(key);
+			if(a == null)
+			{
+				a = pool.poll();
+				if(a == null)
+				{
+					a = new GlobeAnnotation(marker.name, new Position(marker.pos, ELEVATION));
+				}else
+				{
+					a.setText(marker.name);
+					a.setPosition(new Position(marker.pos, ELEVATION));
+				}
+				layer.addRenderable(a);
+				changed = true;
+			}else if(!marker.name.equals(a.getText()))
+			{
+				a.setText(marker.name);
+				changed = true;
+			}
+			next.put(key, a);
+		}
+		for(GlobeAnnotation a : shown.values())
+		{
+			layer.removeRenderable(a);
+			if(pool.size() < MAX_POOLED)
+			{
+				pool.push(a);
+			}
+			changed = true;
+		}
+		shown = next;
+		if(changed)
+		{
+			layer.firePropertyChange(AVKey.LAYER, null, layer);
+		}
+		model.setRows(update.rows);
+		if(update.onApplied != null)
+		{
+			update.onApplied.run();
+		}
+	}
+
+	//same place and name, whatever rank the result had
+	private static GeoResult key(GeoResult r)
+	{
+		return new GeoResult(r.pos, RANK.matcher(r.name).replaceFirst(""));
+	}
+
+	private static class Update
+	{
+		final List<GeoResult> markers;
+		final List<?> rows;
+		final Runnable onApplied;
+
+		Update(List<GeoResult> markers, List<?> rows, Runnable onApplied)
+		{
+			this.markers = markers;
+			this.rows = rows;
+			this.onApplied = onApplied;
+		}
+	}
+}
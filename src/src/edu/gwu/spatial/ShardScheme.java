@@ -0,0 +1,143 @@
+package edu.gwu.spatial;
+
+/**
+ * How rows of the USGS file are split across index shards: by STATE_ALPHA or
+ * by longitude band.  Longitude bands are equal slices of the contiguous US
+ * (125W to 65W); anything further west or east goes to the first or last
+ * band.  The spec string ("state:8", "lon:8") is stored with every shard
+ * commit so an existing index is reopened with the scheme it was built with.
+ * Each commit also records the bounding box of the shard's features, so
+ * searches can skip shards outside the viewport.
+ */
+public abstract class ShardScheme
+{
+	/** Commit user data key for the scheme's spec string. */
+	public static final String SCHEME_KEY = "shards";
+	/** Commit user data key for the shard's "minLat,maxLat,minLon,maxLon". */
+	public static final String BOUNDS_KEY = "bounds";
+
+	private static final double WEST = -125;
+	private static final double EAST = -65;
+
+	private final int shards;
+
+	private ShardScheme(int shards)
+	{
+		this.shards = shards;
+	}
+
+	public static ShardScheme byState(int shards)
+	{
+		return new ShardScheme(shards)
+		{
+			@Override
+			public int shard(String state, double lon)
+			{
+				return state == null ? 0 : (state.toUpperCase().hashCode() & 0x7fffffff) % getShardCount();
+			}
+
+			@Override
+			public String toString()
+			{
+				return "state:"+getShardCount();
+			}
+		};
+	}
+
+	public static ShardScheme byLongitude(int shards)
+	{
+		return new ShardScheme(shards)
+		{
+			@Override
+			public int shard(String state, double lon)
+			{
+				if(Double.isNaN(lon))
+				{
+					return 0;
+				}
+				int band = (int)Math.floor((lon - WEST) / (EAST - WEST) * getShardCount());
+				return Math.max(0, Math.min(getShardCount() - 1, band));
+			}
+
+			@Override
+			public String toString()
+			{
+				return "lon:"+getShardCount();
+			}
+		};
+	}
+
+	/**
+	 * Parses "state:N" or "lon:N".  Returns null for null, or for a single
+	 * shard, meaning an unsharded index.
+	 */
+	public static ShardScheme parse(String spec)
+	{
+		if(spec == null)
+		{
+			return null;
+		}
+		int colon = spec.indexOf(':');
+		if(colon < 0)
+		{
+			throw new IllegalArgumentException("Expected state:N or lon:N, got "+spec);
+		}
+		String kind = spec.substring(0, colon).trim();
+		int shards = Integer.parseInt(spec.substring(colon + 1).trim());
+		if(shards <= 1)
+		{
+			return null;
+		}
+		if(kind.equalsIgnoreCase("state"))
+		{
+			return byState(shards);
+		}else if(kind.equalsIgnoreCase("lon"))
+		{
+			return byLongitude(shards);
+		}
+		throw new IllegalArgumentException("Unknown shard scheme "+kind);
+	}
+
+	public int getShardCount()
+	{
+		return shards;
+	}
+
+	/**
+	 * The shard for a row; state may be null and lon NaN when missing.
+	 */
+	public abstract int shard(String state, double lon);
+
+	/**
+	 * The union of two {minLat, maxLat, minLon, maxLon} boxes, either of
+	 * which may be null.
+	 */
+	public static double[] union(double[] a, double[] b)
+	{
+		if(a == null)
+		{
+			return b;
+		}else if(b == null)
+		{
+			return a;
+		}
+		return new double[]{Math.min(a[0], b[0]), Math.max(a[1], b[1]),
+				Math.min(a[2], b[2]), Math.max(a[3], b[3])};
+	}
+
+	public static String formatBounds(double[] box)
+	{
+		return box[0]+","+box[1]+","+box[2]+","+box[3];
+	}
+
+	public static double[] parseBounds(String bounds)
+	{
+		if(bounds == null)
+		{
+			return null;
+		}
+		String[] v = bounds.split(",");
+		return new double[]{Double.parseDouble(v[0]), Double.parseDouble(v[1]),
+				Double.parseDouble(v[2]), Double.parseDouble(v[3])};
+	}
+}
@@ -13,7 +13,6 @@ import gov.nasa.worldwind.layers.Layer;
 import gov.nasa.worldwind.layers.LayerList;
 import gov.nasa.worldwind.layers.RenderableLayer;
 import gov.nasa.worldwind.layers.Earth.BMNGOneImage;
-import gov.nasa.worldwind.render.GlobeAnnotation;
 import gov.nasa.worldwind.util.StatusBar;
 import gov.nasa.worldwindx.examples.util.HighlightController;
 
@@ -22,26 +21,29 @@ import java.awt.Dimension;
 import java.awt.FileDialog;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.RejectedExecutionHandler;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 
-import javax.swing.DefaultListModel;
 import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JList;
+import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JPopupMenu;
+import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.ProgressMonitor;
@@ -52,6 +54,10 @@ import javax.swing.event.DocumentListener;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.queryParser.ParseException;
 
+import edu.gwu.search.ResultPage;
+import edu.gwu.search.SearchScheduler;
+import edu.gwu.search.SearchTicket;
+
 
 public class SpatialUI extends JFrame implements DocumentListener, KeyListener
 {
@@ -80,25 +86,36 @@ public class SpatialUI extends JFrame implements DocumentListener, KeyListener
 	protected Dimension canvasSize = new Dimension(800, 600);
 	private WWPanel wwPanel;
 	private RenderableLayer resultsLayer = new RenderableLayer();
-	private final ThreadPoolExecutor executor;
-	private final BlockingQueue<Runnable> workQueue = new ArrayBlockingQueue<Runnable>(10);
+	//quiet time after input before searching, and time allowed to collect hits
+	private static final long SETTLE_MS = 150;
+	private static final long BUDGET_MS = 1500;
+	//typed searches and identify clicks both replace the list, so the latest of either wins
+	private final SearchScheduler searches = new SearchScheduler("spatial-search", SETTLE_MS, BUDGET_MS);
+	private final SearchScheduler pages = new SearchScheduler("spatial-pages", 0, 0);
+	//camera moves come in a stream of view changes; wait for the view to settle
+	private static final long CAMERA_SETTLE_MS = 250;
+	private IncrementalViewportSearch viewport;
+	//set on the EDT once the user has searched, so camera moves have something to follow
+	private boolean searched;
+	//the query of the last typed search; only touched on the scheduler thread
+	private String lastQuery;
 	
 	private USGSDomesticNamesIndex lucene;
 	
 	JTextField search;
-	DefaultListModel listModel;
+	ResultListModel listModel;
+	private ResultRenderer renderer;
+	private final JPopupMenu suggestions = new JPopupMenu();
+	//paging state, only touched on the EDT
+	private ResultPage.Cursor nextPage;
+	private String pageQuery;
+	private boolean fetchingPage;
 	
 	public SpatialUI() throws IOException
 	{
-		executor = new ThreadPoolExecutor(3, 3, 10, TimeUnit.SECONDS, workQueue, new RejectedExecutionHandler()
-		{
-			@Override
-			public void rejectedExecution(Runnable arg0, ThreadPoolExecutor arg1) {
-				System.out.println("Work rejected");
-			}
-		});
-		
-		lucene = new USGSDomesticNamesIndex(new File("lucene-index"));
+		//e.g. -Dusgs.shards=lon:8 to split a new index by longitude band
+		lucene = new USGSDomesticNamesIndex(new File("lucene-index"), ShardScheme.parse(System.getProperty("usgs.shards")));
+		viewport = new IncrementalViewportSearch(lucene, 100);
 				
 		buildUI();
 	}
@@ -112,7 +129,48 @@ public class SpatialUI extends JFrame implements DocumentListener, KeyListener
 		
 		resultsLayer.setName("Search results");
 		model.getLayers().add(resultsLayer);
+		
+		//right click on the map lists the features nearest to that point
+		this.wwPanel.wwd.addMouseListener(new MouseAdapter()
+		{
+			public void mouseClicked(final MouseEvent e)
+			{
+				if(e.getButton() != MouseEvent.BUTTON3)
+				{
+					return;
+				}
+				searches.submit(new SearchScheduler.Search()
+				{
+					@Override
+					public void run(SearchTicket ticket)
+					{
+						identify(e.getX(), e.getY(), ticket);
+					}
+				});
+			}
+		});
 
+		//camera moves refresh the results for the newly visible area
+		this.wwPanel.wwd.getView().addPropertyChangeListener(AVKey.VIEW, new PropertyChangeListener()
+		{
+			@Override
+			public void propertyChange(PropertyChangeEvent evt)
+			{
+				if(!searched)
+				{
+					return;
+				}
+				final String query = search.getText();
+				searches.submit(new SearchScheduler.Search()
+				{
+					@Override
+					public void run(SearchTicket ticket)
+					{
+						followCamera(query, ticket);
+					}
+				}, CAMERA_SETTLE_MS);
+			}
+		});
 		
 		search = new JTextField("enter search here...");
 		search.addMouseListener(new MouseAdapter()
@@ -125,6 +183,7 @@ public class SpatialUI extends JFrame implements DocumentListener, KeyListener
 		search.addKeyListener(this);
 		search.getDocument().addDocumentListener(this);
 		search.setPreferredSize(new Dimension(400, 20));
+		suggestions.setFocusable(false);
 		
 		JButton add = new JButton("Index file...");
 		add.addActionListener(new ActionListener()
@@ -156,19 +215,67 @@ public class SpatialUI extends JFrame implements DocumentListener, KeyListener
 			}
 		});
 		
+		JButton update = new JButton("Update from new release...");
+		update.addActionListener(new ActionListener()
+		{
+			@Override
+			public void actionPerformed(ActionEvent e)
+			{
+				FileDialog fd = new FileDialog(SpatialUI.this, "Select a newer release of the whole NationalFile");
+				fd.setMode(FileDialog.LOAD);
+				fd.setDirectory(System.getProperty("user.dir"));
+				fd.setVisible(true);
+				if(fd.getDirectory() == null || fd.getFile() == null)
+				{
+					return;
+				}
+				File file = new File(fd.getDirectory(), fd.getFile());
+				int answer = JOptionPane.showConfirmDialog(SpatialUI.this,
+						"Features that are not in "+file.getName()+" will be deleted from the index.  Continue?",
+						"Update from new release", JOptionPane.OK_CANCEL_OPTION);
+				if(answer != JOptionPane.OK_OPTION)
+				{
+					return;
+				}
+				try
+				{
+					lucene.updateFile(file);
+				}catch(IOException ex)
+				{
+					ex.printStackTrace();
+					JOptionPane.showMessageDialog(SpatialUI.this, ex.getMessage(), "Update failed",
+							JOptionPane.ERROR_MESSAGE);
+				}
+			}
+		});
+		
 		JLabel searchLab = new JLabel("Search: ");
 		JPanel searchPan = new JPanel();
 		
 		searchPan.add(searchLab);
 		searchPan.add(search);
 		searchPan.add(add);
+		searchPan.add(update);
 		
-		listModel = new DefaultListModel();
-		listModel.addElement("Search result will go here");
+		listModel = new ResultListModel();
+		listModel.setRows(Collections.singletonList("Search result will go here"));
+		renderer = new ResultRenderer(resultsLayer, listModel);
 		JList searchResults = new JList(listModel);
 		
 		JScrollPane scroller = new JScrollPane(searchResults);
 		scroller.setPreferredSize(new Dimension(800, 350));
+		scroller.getVerticalScrollBar().addAdjustmentListener(new AdjustmentListener()
+		{
+			@Override
+			public void adjustmentValueChanged(AdjustmentEvent e)
+			{
+				JScrollBar bar = (JScrollBar)e.getAdjustable();
+				if(bar.getValue() + bar.getVisibleAmount() * 2 >= bar.getMaximum())
+				{
+					fetchNextPage();
+				}
+			}
+		});
 		
 		this.getContentPane().add(searchPan, BorderLayout.CENTER);
 		this.getContentPane().add(this.wwPanel, BorderLayout.NORTH);
@@ -178,49 +285,260 @@ public class SpatialUI extends JFrame implements DocumentListener, KeyListener
 	
 	private void updateResults(final List<GeoResult> results)
 	{
-		resultsLayer.removeAllRenderables();
-		for(GeoResult res : results)
+		updateResults(results, null, null, null);
+	}
+	
+	/**
+	 * With an aggregation, the map shows one marker per cluster of matches
+	 * rather than a marker per listed result.
+	 */
+	private void updateResults(final List<GeoResult> results, final GeoAggregation clusters,
+			final ResultPage.Cursor next, final String query)
+	{
+		List<GeoResult> markers = results;
+		List<Object> rows = new ArrayList<Object>(results.size() + 1);
+		if(clusters != null)
 		{
-			resultsLayer.addRenderable(new GlobeAnnotation(res.name, new Position(res.pos, 5)));
+			markers = new ArrayList<GeoResult>(clusters.clusters.size());
+			for(GeoAggregation.Cluster c : clusters.clusters)
+			{
+				markers.add(new GeoResult(c.centroid, c.count+" matches"));
+			}
+			rows.add(clusters);
 		}
-		resultsLayer.firePropertyChange(AVKey.LAYER, null, resultsLayer);
+		rows.addAll(results);
 		
+		renderer.show(markers, rows, new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				nextPage = next;
+				pageQuery = query;
+				fetchingPage = false;
+			}
+		});
+	}
+	
+	/**
+	 * Called on the EDT when the list is scrolled near its end: fetches the
+	 * page after the last one shown and appends it, unless a newer search
+	 * has replaced the list in the meantime.  A next page only exists when
+	 * the map shows clusters, so the appended results get no markers.
+	 */
+	private void fetchNextPage()
+	{
+		if(fetchingPage || nextPage == null)
+		{
+			return;
+		}
+		fetchingPage = true;
+		final ResultPage.Cursor cursor = nextPage;
+		final String query = pageQuery;
+		pages.submit(new SearchScheduler.Search()
+		{
+			@Override
+			public void run(SearchTicket ticket)
+			{
+				ResultPage<GeoResult> page = null;
+				try {
+					page = lucene.findPage(query, null, null, cursor, 100, ticket);
+				} catch (ParseException e) {
+				} catch (IOException e) {
+				}
+				final ResultPage<GeoResult> fetched = page;
+				SwingUtilities.invokeLater(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						if(nextPage != cursor)
+						{
+							return;
+						}
+						fetchingPage = false;
+						if(fetched == null)
+						{
+							nextPage = null;
+							return;
+						}
+						listModel.addRows(fetched.getResults());
+						nextPage = fetched.getNext();
+					}
+				});
+			}
+		});
+	}
+	
+	/**
+	 * Offers completions of the word being typed, most common names first.
+	 */
+	private void updateSuggestions(final String text)
+	{
+		final List<String> words;
+		int lastSpace = text.lastIndexOf(' ');
+		final String prefix = text.substring(lastSpace + 1);
+		try {
+			words = prefix.length() < 2 ? Collections.<String>emptyList() : lucene.suggest(prefix, 8, null);
+		} catch (IOException e) {
+			return;
+		}
 		SwingUtilities.invokeLater(new Runnable()
 		{
 			@Override
 			public void run()
 			{
-				listModel.clear();
-				for(GeoResult res : results)
+				suggestions.setVisible(false);
+				suggestions.removeAll();
+				if(words.isEmpty() || !search.getText().equals(text)
+						|| (words.size() == 1 && words.get(0).equals(prefix.toLowerCase())))
+				{
+					return;
+				}
+				for(final String word : words)
 				{
-					listModel.addElement(res);
+					JMenuItem item = new JMenuItem(word);
+					item.addActionListener(new ActionListener()
+					{
+						@Override
+						public void actionPerformed(ActionEvent e)
+						{
+							search.setText(text.substring(0, text.length() - prefix.length()) + word);
+						}
+					});
+					suggestions.add(item);
 				}
+				suggestions.show(search, 0, search.getHeight());
 			}
 		});
 	}
 	
-	private void doSearch()
+	/**
+	 * Runs on the scheduler thread with the text captured when the search
+	 * was submitted.
+	 */
+	private void doSearch(String query, SearchTicket ticket)
 	{
+		lastQuery = query;
+		viewport.clear();
+		updateSuggestions(query);
 		try {
 			Dimension size = this.wwPanel.getSize();
 			Position pos1 = this.wwPanel.wwd.getView().computePositionFromScreenPoint(0, 0);			
 			Position pos2 = this.wwPanel.wwd.getView().computePositionFromScreenPoint(size.width-1, size.height-1);
-			if(search.getText().isEmpty())
+			if(query.isEmpty())
 			{
 				updateResults(Collections.EMPTY_LIST);
+				return;
 			}
 			
 			
 			System.out.println("Finding results between "+pos1+", and "+pos2);
-			List<GeoResult> results = lucene.findResults(search.getText(), pos1, pos2);
-			System.out.println("Found "+results.size()+" results");
-			updateResults(results);
+			ResultPage<GeoResult> page = lucene.findPage(query, pos1, pos2, null, 100, ticket);
+			List<GeoResult> results = page.getResults();
+			System.out.println("Found "+results.size()+" results"+(ticket.isPartial() ? " before the time budget ran out" : ""));
+			if(results.size() >= 100)
+			{
+				//more matches than can be drawn; show where they are instead
+				GeoAggregation agg = lucene.aggregate(query, pos1, pos2, 8, 8, ticket);
+				System.out.println(agg);
+				ticket.checkpoint();
+				updateResults(results, agg, page.getNext(), query);
+			}else
+			{
+				ticket.checkpoint();
+				updateResults(results);
+			}
 		} catch (CorruptIndexException e) {
 		} catch (ParseException e) {
 		} catch (IOException e) {
 		}
 	}
 	
+	/**
+	 * Runs on the scheduler thread after the camera settles: brings the
+	 * results of the last search up to date with the view, searching only
+	 * the parts of it that were not visible before.
+	 */
+	private void followCamera(String query, SearchTicket ticket)
+	{
+		if(!query.equals(lastQuery))
+		{
+			//the camera move replaced a typed search that had not run yet
+			doSearch(query, ticket);
+			return;
+		}
+		double[] view = viewBox();
+		if(query.isEmpty() || view == null)
+		{
+			return;
+		}
+		try {
+			List<GeoResult> results = viewport.update(query, view, ticket);
+			ticket.checkpoint();
+			updateResults(number(results));
+		} catch (ParseException e) {
+		} catch (IOException e) {
+		}
+	}
+	
+	//{minLat, maxLat, minLon, maxLon} of the visible map, or null if a corner is off the globe
+	private double[] viewBox()
+	{
+		Dimension size = this.wwPanel.getSize();
+		Position nw = this.wwPanel.wwd.getView().computePositionFromScreenPoint(0, 0);
+		Position se = this.wwPanel.wwd.getView().computePositionFromScreenPoint(size.width-1, size.height-1);
+		if(nw == null || se == null)
+		{
+			return null;
+		}
+		double north = nw.getLatitude().getDegrees();
+		double south = se.getLatitude().getDegrees();
+		return new double[]{Math.min(north, south), Math.max(north, south),
+				nw.getLongitude().getDegrees(), se.getLongitude().getDegrees()};
+	}
+	
+	private static List<GeoResult> number(List<GeoResult> results)
+	{
+		List<GeoResult> numbered = new ArrayList<GeoResult>(results.size());
+		for(int i=0; i<results.size(); i++)
+		{
+			GeoResult r = results.get(i);
+			numbered.add(new GeoResult(r.pos, (i+1) +". "+r.name, r.score));
+		}
+		return numbered;
+	}
+	
+	private void submitSearch()
+	{
+		searched = true;
+		final String query = search.getText();
+		searches.submit(new SearchScheduler.Search()
+		{
+			@Override
+			public void run(SearchTicket ticket)
+			{
+				doSearch(query, ticket);
+			}
+		});
+	}
+	
+	private void identify(int x, int y, SearchTicket ticket)
+	{
+		Position pos = this.wwPanel.wwd.getView().computePositionFromScreenPoint(x, y);
+		if(pos == null)
+		{
+			return;
+		}
+		try {
+			List<GeoResult> results = lucene.findNearest(pos, 10, null, null);
+			System.out.println("Found "+results.size()+" features near "+pos);
+			ticket.checkpoint();
+			updateResults(results);
+		} catch (IOException e) {
+		}
+	}
+	
     protected LayerList makeCommonLayers()
     {
         LayerList layerList = new LayerList();
@@ -262,26 +580,12 @@ public class SpatialUI extends JFrame implements DocumentListener, KeyListener
 
 	@Override
 	public void insertUpdate(DocumentEvent arg0) {
-		executor.execute(new Runnable()
-		{
-			@Override
-			public void run()
-			{
-				doSearch();
-			}
-		});
+		submitSearch();
 	}
 
 	@Override
 	public void removeUpdate(DocumentEvent arg0) {
-		executor.execute(new Runnable()
-		{
-			@Override
-			public void run()
-			{
-				doSearch();
-			}
-		});
+		submitSearch();
 	}
 
 }
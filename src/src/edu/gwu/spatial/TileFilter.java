@@ -0,0 +1,81 @@
+package edu.gwu.spatial;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.OpenBitSet;
+
+/**
+ * Bounding box filter over the GeoTiles field.  Documents in tiles wholly
+ * inside the box are accepted straight from the postings of the tile term;
+ * only documents in the tiles along the box edge have their coordinates
+ * checked.  The work done is proportional to the visible area rather than
+ * to full latitude and longitude bands.
+ */
+public class TileFilter extends Filter
+{
+	private final double minLat, maxLat, minLon, maxLon;
+	private final List<String> interior = new ArrayList<String>();
+	private final List<String> edge = new ArrayList<String>();
+
+	public TileFilter(double minLat, double maxLat, double minLon, double maxLon)
+	{
+		this.minLat = minLat;
+		this.maxLat = maxLat;
+		this.minLon = minLon;
+		this.maxLon = maxLon;
+		GeoTiles.cover(minLat, maxLat, minLon, maxLon, interior, edge);
+	}
+
+	@Override
+	public DocIdSet getDocIdSet(IndexReader reader) throws IOException
+	{
+		OpenBitSet bits = new OpenBitSet(reader.maxDoc());
+		TermDocs termDocs = reader.termDocs();
+		try
+		{
+			for(String tile : interior)
+			{
+				termDocs.seek(new Term(GeoTiles.FIELD, tile));
+				while(termDocs.next())
+				{
+					bits.fastSet(termDocs.doc());
+				}
+			}
+			if(edge.isEmpty())
+			{
+				return bits;
+			}
+			GeoColumns columns = GeoColumns.get(reader);
+			for(String tile : edge)
+			{
+				termDocs.seek(new Term(GeoTiles.FIELD, tile));
+				while(termDocs.next())
+				{
+					int doc = termDocs.doc();
+					if(columns.inside(doc, minLat, maxLat, minLon, maxLon))
+					{
+						bits.fastSet(doc);
+					}
+				}
+			}
+		}finally
+		{
+			termDocs.close();
+		}
+		return bits;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "TileFilter("+minLat+","+minLon+" to "+maxLat+","+maxLon+": "
+				+interior.size()+" interior, "+edge.size()+" edge tiles)";
+	}
+}
@@ -1,25 +1,26 @@
 package edu.gwu.spatial;
 
-import gov.nasa.worldwind.geom.Angle;
 import gov.nasa.worldwind.geom.LatLon;
 import gov.nasa.worldwind.geom.Position;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.NumericField;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
 import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.IndexCommit;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.queryParser.ParseException;
 import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.search.BooleanClause;
@@ -30,70 +31,262 @@ import org.apache.lucene.search.NumericRangeFilter;
 import org.apache.lucene.search.NumericRangeQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.SimpleFSDirectory;
 import org.apache.lucene.util.Version;
 
+import edu.gwu.search.DirectoryFactory;
+import edu.gwu.search.IndexMetrics;
+import edu.gwu.search.MeteredIndexWriter;
+import edu.gwu.search.PhaseTimer;
+import edu.gwu.search.ResultPage;
+import edu.gwu.search.SearchTicket;
+import edu.gwu.search.SharedSearcher;
+
 
 public class USGSDomesticNamesIndex 
 {
 	StandardAnalyzer analyzer = new StandardAnalyzer(Version.LUCENE_36);
-	Directory index;
+	Directory[] directories;
+	ShardScheme scheme;
+	SharedSearcher searchers;
+	private final IndexMetrics metrics = new IndexMetrics();
+	private final Object treeLock = new Object();
+	private FeatureKDTree tree;
+	private NameSuggester suggester;
+	private static final int PAGE_SIZE = 100;
+	private final ViewportResultCache resultCache = new ViewportResultCache(20000);
+	
+	//coordinates come from GeoColumns, so only the text columns are loaded
+	private static final FieldSelector DISPLAY_FIELDS = new MapFieldSelector(
+			"FEATURE_NAME", "COUNTY_NAME", "STATE_ALPHA", "FEATURE_CLASS", "MAP_NAME");
 	
 	
 	public USGSDomesticNamesIndex(File indexDir) throws IOException
 	{
-		index = new SimpleFSDirectory(indexDir);
+		this(indexDir, null);
 	}
 	
+	/**
+	 * With a scheme, a new index is split into shard-N directories under
+	 * indexDir.  An existing sharded index is always reopened with the scheme
+	 * it was built with; no scheme and no shards means a single index.
+	 */
+	public USGSDomesticNamesIndex(File indexDir, ShardScheme scheme) throws IOException
+	{
+		ShardScheme existing = readScheme(indexDir);
+		this.scheme = existing != null ? existing : scheme;
+		if(this.scheme == null)
+		{
+			directories = new Directory[]{DirectoryFactory.open(indexDir)};
+		}else
+		{
+			directories = new Directory[this.scheme.getShardCount()];
+			for(int i=0; i<directories.length; i++)
+			{
+				directories[i] = DirectoryFactory.open(new File(indexDir, "shard-"+i));
+			}
+		}
+		searchers = new SharedSearcher(directories, metrics);
+		metrics.register("USGSDomesticNamesIndex", indexDir.getAbsolutePath());
+	}
 	
-	public void addFile(File file) throws IOException
+	private static ShardScheme readScheme(File indexDir) throws IOException
 	{
-		Date start = new Date();
-		IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_36, analyzer);
-		IndexWriter w = new IndexWriter(index, config);
-		
-		BufferedReader reader = new BufferedReader(new FileReader(file));
-		String firstLine =reader.readLine();
-
-		String delim = "\\|";
-		String[] header = firstLine.split(delim);
-		String dataLine = reader.readLine();
-		while(dataLine != null)
-		{
-			Document doc = new Document();
-			String[] dataFields = dataLine.split(delim);
-			for(int i=0; i<header.length && i<dataFields.length; i++)
+		File first = new File(indexDir, "shard-0");
+		if(!first.isDirectory())
+		{
+			return null;
+		}
+		//only reads the commit point, so the storage backend does not matter
+		Directory dir = new SimpleFSDirectory(first);
+		try
+		{
+			if(!IndexReader.indexExists(dir))
 			{
-				String curHeader = header[i];
-				String curData = dataFields[i];
-				if(curData == null || curData.isEmpty())
+				return null;
+			}
+			return ShardScheme.parse(commitUserData(dir).get(ShardScheme.SCHEME_KEY));
+		}finally
+		{
+			dir.close();
+		}
+	}
+	
+	//user data of the latest commit; the directory must hold an index
+	private static Map<String, String> commitUserData(Directory dir) throws IOException
+	{
+		List<IndexCommit> commits = new ArrayList<IndexCommit>(IndexReader.listCommits(dir));
+		return commits.get(commits.size() - 1).getUserData();
+	}
+	
+	public void close() throws IOException
+	{
+		metrics.unregister();
+		searchers.close();
+		for(Directory d : directories)
+		{
+			d.close();
+		}
+	}
+	
+	private IndexWriter[] openWriters(int workers) throws IOException
+	{
+		IndexWriter[] writers = new IndexWriter[directories.length];
+		try
+		{
+			for(int i=0; i<writers.length; i++)
+			{
+				IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_36, analyzer);
+				config.setRAMBufferSizeMB(Math.max(16.0, 256.0 / writers.length));
+				config.setMaxThreadStates(Math.max(1, workers));
+				writers[i] = new MeteredIndexWriter(directories[i], config, metrics);
+			}
+		}catch(IOException e)
+		{
+			closeWriters(writers);
+			throw e;
+		}
+		return writers;
+	}
+	
+	private static void closeWriters(IndexWriter[] writers) throws IOException
+	{
+		IOException first = null;
+		for(IndexWriter w : writers)
+		{
+			try
+			{
+				if(w != null)
 				{
-					continue;
+					w.close();
 				}
-				if(curHeader.contains("LAT_DEC") || curHeader.contains("LONG_DEC")
-						|| curHeader.contains("ELEV"))
-				{
-					NumericField num = new NumericField(curHeader, Field.Store.YES, true);
-					num.setDoubleValue(Double.parseDouble(curData));
-					doc.add(num);
-				}else if(curHeader.contains("STATE_ALPHA") || curHeader.contains("FEATURE_NAME")
-						||curHeader.contains("COUNTY_NAME") || curHeader.contains("MAP_NAME")
-						|| curHeader.contains("FEATURE_CLASS"))
+			}catch(IOException e)
+			{
+				if(first == null)
 				{
-					doc.add(new Field(curHeader, curData, Field.Store.YES, Field.Index.ANALYZED));
+					first = e;
 				}
-			}			
-			w.addDocument(doc);
-			dataLine = reader.readLine();
+			}
+		}
+		if(first != null)
+		{
+			throw first;
+		}
+	}
+	
+	//records the scheme and each shard's widened bounds with the commit
+	private void commitShards(IndexWriter[] writers, NationalFileIngest ingest) throws IOException
+	{
+		if(scheme == null)
+		{
+			return;
 		}
+		for(int i=0; i<writers.length; i++)
+		{
+			Map<String, String> data = new HashMap<String, String>();
+			if(IndexReader.indexExists(directories[i]))
+			{
+				data.putAll(commitUserData(directories[i]));
+			}
+			double[] bounds = ShardScheme.union(ShardScheme.parseBounds(data.get(ShardScheme.BOUNDS_KEY)),
+					ingest.getBounds(i));
+			data.put(ShardScheme.SCHEME_KEY, scheme.toString());
+			if(bounds != null)
+			{
+				data.put(ShardScheme.BOUNDS_KEY, ShardScheme.formatBounds(bounds));
+			}
+			writers[i].commit(data);
+		}
+	}
+	
+	
+	public void addFile(File file) throws IOException
+	{
+		addFile(file, Runtime.getRuntime().availableProcessors());
+	}
+	
+	public void addFile(File file, int workers) throws IOException
+	{
+		Date start = new Date();
+		IndexWriter[] writers = openWriters(workers);
 		
-		w.close();
+		long rows;
+		metrics.ingestStarted();
+		try
+		{
+			NationalFileIngest ingest = new NationalFileIngest(writers, scheme, workers, null);
+			ingest.setMetrics(metrics);
+			rows = ingest.run(file);
+			commitShards(writers, ingest);
+		}finally
+		{
+			metrics.ingestFinished();
+			closeWriters(writers);
+		}
+		searchers.refresh();
 		System.out.println("Done indexing!");
 		Date end = new Date();
 		long ms = end.getTime() - start.getTime();
 		System.out.println("Took "+printFormattedMS(ms)+".");
+		System.out.println("Indexed "+rows+" rows with "+workers+" workers ("
+				+(rows * 1000 / Math.max(1, ms))+" rows/sec).");
+	}
+	
+	/**
+	 * Brings the index up to date with a newer release of the file.  Rows are
+	 * matched to indexed features by FEATURE_ID and compared by a hash of the
+	 * row; only new, changed and removed features touch the index.  Indexed
+	 * features missing from the file are deleted, so the file must be a full
+	 * release, not one state.  Refuses an index holding features without a
+	 * FEATURE_ID, which could not be matched; rebuild it with addFile.
+	 */
+	public void updateFile(File file) throws IOException
+	{
+		Date start = new Date();
+		int workers = Runtime.getRuntime().availableProcessors();
+		IndexWriter[] writers = openWriters(workers);
+		
+		NationalFileIngest ingest;
+		int deleted;
+		metrics.ingestStarted();
+		try
+		{
+			IndexReader[] shards = new IndexReader[writers.length];
+			for(int i=0; i<writers.length; i++)
+			{
+				shards[i] = IndexReader.open(writers[i], false);
+			}
+			IndexReader before = shards.length == 1 ? shards[0] : new MultiReader(shards);
+			try
+			{
+				FeatureSnapshot snapshot = FeatureSnapshot.load(before);
+				if(snapshot.size() < before.numDocs())
+				{
+					throw new IOException((before.numDocs() - snapshot.size())+" indexed features have no FEATURE_ID"
+							+" to match against "+file.getName()+"; rebuild the index from the full file with addFile");
+				}
+				ingest = new NationalFileIngest(writers, scheme, workers, snapshot);
+				ingest.setMetrics(metrics);
+				ingest.run(file);
+				deleted = snapshot.deleteUnseen(before, writers);
+				commitShards(writers, ingest);
+			}finally
+			{
+				before.close();
+			}
+		}finally
+		{
+			metrics.ingestFinished();
+			closeWriters(writers);
+		}
+		searchers.refresh();
+		Date end = new Date();
+		System.out.println("Updated from "+file.getName()+" in "+printFormattedMS(end.getTime() - start.getTime())
+				+": "+ingest.getRowsRead()+" rows read, "+ingest.getRowsAdded()+" added, "
+				+ingest.getRowsUpdated()+" changed, "+ingest.getRowsUnchanged()+" unchanged, "
+				+deleted+" deleted.");
 	}
 	
 	private String printFormattedMS(long ms)
@@ -119,7 +312,16 @@ public class USGSDomesticNamesIndex
 		
 	}
 	
-	private Query buildFilteredQuery(String query, Position nw, Position se) throws ParseException
+	private Query parse(String query, PhaseTimer timer) throws ParseException
+	{
+		long start = System.nanoTime();
+		Query q = new QueryParser(Version.LUCENE_36, "FEATURE_NAME", analyzer).parse(query);
+		timer.add(IndexMetrics.Phase.PARSE, start);
+		timer.setQuery(query, q);
+		return q;
+	}
+	
+	Query buildFilteredQuery(String query, Position nw, Position se) throws ParseException
 	{
 		Query q = new QueryParser(Version.LUCENE_36, "FEATURE_NAME", analyzer).parse(query);
 		
@@ -137,7 +339,7 @@ public class USGSDomesticNamesIndex
 		return fq;
 	}
 	
-	private Query buildRangeQuery(String query, Position nw, Position se) throws ParseException
+	Query buildRangeQuery(String query, Position nw, Position se) throws ParseException
 	{
 		Query q = new QueryParser(Version.LUCENE_36, "FEATURE_NAME", analyzer).parse(query);
 		
@@ -158,45 +360,329 @@ public class USGSDomesticNamesIndex
 		return fq;
 	}
 	
+	/**
+	 * Restricts the text query to the box through the GeoTiles field, so
+	 * only postings from the tiles covering it are visited.
+	 */
+	Query buildTileQuery(String query, double minLat, double maxLat, double minLon, double maxLon) throws ParseException
+	{
+		PhaseTimer timer = metrics.timer();
+		Query q = buildTileQuery(query, minLat, maxLat, minLon, maxLon, timer);
+		timer.finish();
+		return q;
+	}
+	
+	private Query buildTileQuery(String query, double minLat, double maxLat, double minLon, double maxLon,
+			PhaseTimer timer) throws ParseException
+	{
+		Query q = parse(query, timer);
+		return new FilteredQuery(q, new TileFilter(minLat, maxLat, minLon, maxLon));
+	}
+	
 	public List<GeoResult> findResults(String query, Position nw, Position se) throws ParseException, CorruptIndexException, IOException
 	{
-		Date start = new Date();
-		
-		int hitsPerPage = 100;
-		IndexReader reader = IndexReader.open(index);
-		IndexSearcher searcher = new IndexSearcher(reader);
-		TopScoreDocCollector collector = TopScoreDocCollector.create(hitsPerPage, true);
+		return findPage(query, nw, se, null, PAGE_SIZE).getResults();
+	}
+	
+	/**
+	 * One page of results in the viewport.  Pass null for the first page and
+	 * the previous page's getNext() for each page after it; later pages search
+	 * the same box as the first even if the view has moved since.
+	 */
+	public ResultPage<GeoResult> findPage(String query, Position nw, Position se, ResultPage.Cursor after, int pageSize) throws ParseException, CorruptIndexException, IOException
+	{
+		return findPage(query, nw, se, after, pageSize, null);
+	}
+	
+	/**
+	 * findPage under a SearchTicket.  A page cut short by the ticket's
+	 * deadline has no next cursor and is not cached.
+	 */
+	public ResultPage<GeoResult> findPage(String query, Position nw, Position se, ResultPage.Cursor after, int pageSize,
+			SearchTicket ticket) throws ParseException, CorruptIndexException, IOException
+	{
+		String normalized = ViewportResultCache.normalize(query);
+		ResultPage<GeoResult> page;
+		if(after != null)
+		{
+			page = searchPage(normalized, (double[])after.getState(), after, pageSize, ticket);
+		}else
+		{
+			double north = nw.getLatitude().getDegrees();
+			double south = se.getLatitude().getDegrees();
+			double minLat = Math.min(north, south);
+			double maxLat = Math.max(north, south);
+			//west will be lower than east....
+			double minLon = nw.getLongitude().getDegrees();
+			double maxLon = se.getLongitude().getDegrees();
+			page = firstPage(normalized, minLat, maxLat, minLon, maxLon, pageSize, ticket);
+		}
 		
+		int offset = after == null ? 0 : after.getOffset();
+		List<GeoResult> results = page.getResults();
+		List<GeoResult> numbered = new ArrayList<GeoResult>(results.size());
+		for(int i=0; i<results.size(); i++)
+		{
+			GeoResult r = results.get(i);
+			numbered.add(new GeoResult(r.pos, (offset+i+1) +". "+r.name, r.score));
+		}
+		return new ResultPage<GeoResult>(numbered, page.getNext());
+	}
+	
+	private ResultPage<GeoResult> firstPage(String query, double minLat, double maxLat, double minLon, double maxLon, int pageSize,
+			SearchTicket ticket) throws ParseException, IOException
+	{
+		double[] viewport = new double[]{minLat, maxLat, minLon, maxLon};
+		if(pageSize != PAGE_SIZE)
+		{
+			//uncached, so the box is searched as given; only cache entries use the snapped box
+			return searchPage(query, viewport, null, pageSize, ticket);
+		}
+		long generation = searchers.getGeneration();
+		ResultPage<GeoResult> page = resultCache.get(generation, query, minLat, maxLat, minLon, maxLon);
+		if(page != null)
+		{
+			return page;
+		}
+		if(resultCache.isTruncated(generation, query, minLat, maxLat, minLon, maxLon))
+		{
+			//more than a page around the viewport; its top hits would likely spill into the snap margin
+			return searchPage(query, viewport, null, pageSize, ticket);
+		}
+		double[] box = ViewportResultCache.snap(minLat, maxLat, minLon, maxLon);
+		ResultPage<GeoResult> found = searchPage(query, box, null, pageSize, ticket);
+		if(ticket != null && ticket.isPartial())
+		{
+			return new ResultPage<GeoResult>(ViewportResultCache.inside(found.getResults(),
+					minLat, maxLat, minLon, maxLon), null);
+		}
+		ResultPage.Cursor next = found.getNext();
+		page = resultCache.put(generation, query, box, found.getResults(), next == null,
+				next == null ? null : next.getAfter(), viewport);
+		return page != null ? page : searchPage(query, viewport, null, pageSize, ticket);
+	}
+	
+	/**
+	 * The top n matches inside the box {minLat, maxLat, minLon, maxLon},
+	 * scored, unnumbered and uncached.  getNext() is non-null when the box
+	 * holds more than n matches.
+	 */
+	public ResultPage<GeoResult> findInBox(String query, double[] box, int n, SearchTicket ticket) throws ParseException, IOException
+	{
+		return searchPage(ViewportResultCache.normalize(query), box, null, n, ticket);
+	}
+	
+	/**
+	 * The cache behind findPage's first pages, for its hit counts.
+	 */
+	public ViewportResultCache getResultCache()
+	{
+		return resultCache;
+	}
+	
+	/**
+	 * Changes whenever the searchers are refreshed after an update.
+	 */
+	public long getGeneration()
+	{
+		return searchers.getGeneration();
+	}
+	
+	private ResultPage<GeoResult> searchPage(String query, double[] box, ResultPage.Cursor after, int pageSize,
+			SearchTicket ticket) throws ParseException, IOException
+	{
+		PhaseTimer timer = metrics.timer();
+		timer.setBox(box);
+		IndexSearcher searcher = searchers.acquire();
+		try
+		{
+			TopDocs top = searchers.search(searcher, buildTileQuery(query, box[0], box[1], box[2], box[3], timer),
+					overlapping(box), after == null ? null : after.getAfter(), pageSize, ticket, timer);
+			ScoreDoc[] hits = top.scoreDocs;
+			
+			long start = System.nanoTime();
+			List<GeoResult> found = new ArrayList<GeoResult>(hits.length);
+			GeoColumns.Lookup columns = new GeoColumns.Lookup(searcher);
+			for(int i=0; i<hits.length; i++)
+			{
+				found.add(toResult(searcher, columns, hits[i].doc, "", "", hits[i].score));
+			}
+			timer.add(IndexMetrics.Phase.FETCH, start);
+			timer.finish(searcher);
+			int offset = after == null ? 0 : after.getOffset();
+			ResultPage.Cursor next = null;
+			boolean partial = ticket != null && ticket.isPartial();
+			if(!partial && hits.length == pageSize && top.totalHits > offset + hits.length)
+			{
+				next = new ResultPage.Cursor(hits[hits.length - 1], offset + hits.length, box);
+			}
+			return new ResultPage<GeoResult>(found, next);
+		}finally
+		{
+			searchers.release(searcher);
+		}
+	}
+	
+	//skips shards whose recorded bounds miss the box
+	private static SharedSearcher.ShardFilter overlapping(final double[] box)
+	{
+		return new SharedSearcher.ShardFilter()
+		{
+			@Override
+			public boolean accept(IndexReader shard) throws IOException
+			{
+				double[] b = ShardScheme.parseBounds(shard.getIndexCommit().getUserData().get(ShardScheme.BOUNDS_KEY));
+				return b == null || (b[0] <= box[1] && b[1] >= box[0] && b[2] <= box[3] && b[3] >= box[2]);
+			}
+		};
+	}
+	
+	/**
+	 * Clusters and facet counts over every match in the viewport, collected
+	 * in a single pass instead of just the top scoring hits.
+	 */
+	public GeoAggregation aggregate(String query, Position nw, Position se, int rows, int cols) throws ParseException, IOException
+	{
+		return aggregate(query, nw, se, rows, cols, null);
+	}
+	
+	/**
+	 * aggregate under a SearchTicket; past the deadline the counts cover only
+	 * the matches collected so far.
+	 */
+	public GeoAggregation aggregate(String query, Position nw, Position se, int rows, int cols,
+			SearchTicket ticket) throws ParseException, IOException
+	{
+		double north = nw.getLatitude().getDegrees();
+		double south = se.getLatitude().getDegrees();
+		double minLat = Math.min(north, south);
+		double maxLat = Math.max(north, south);
+		double minLon = nw.getLongitude().getDegrees();
+		double maxLon = se.getLongitude().getDegrees();
 		
-		searcher.search(buildRangeQuery(query, nw, se), collector);
-		ScoreDoc[] hits = collector.topDocs().scoreDocs;
+		GeoAggregationCollector collector = new GeoAggregationCollector(minLat, maxLat, minLon, maxLon, rows, cols);
+		PhaseTimer timer = metrics.timer();
+		timer.setBox(new double[]{minLat, maxLat, minLon, maxLon});
+		IndexSearcher searcher = searchers.acquire();
+		try
+		{
+			Query q = buildTileQuery(ViewportResultCache.normalize(query), minLat, maxLat, minLon, maxLon, timer);
+			long start = System.nanoTime();
+			SearchTicket.search(ticket, searcher, q, collector);
+			timer.add(IndexMetrics.Phase.COLLECT, start);
+			GeoAggregation aggregation = collector.getAggregation();
+			timer.setRewritten(q);
+			timer.setHits(aggregation.totalHits, null, ticket != null && ticket.isPartial());
+			timer.finish(searcher);
+			return aggregation;
+		}finally
+		{
+			searchers.release(searcher);
+		}
+	}
+	
+	private GeoResult toResult(IndexSearcher searcher, GeoColumns.Lookup columns, int docId,
+			String prefix, String suffix, float score) throws IOException
+	{
+		Document d = searcher.doc(docId, DISPLAY_FIELDS);
+		String coords = "";
+		LatLon pos = LatLon.ZERO;
+		if(columns.seek(docId))
+		{
+			pos = LatLon.fromDegrees(columns.lat(), columns.lon());
+			coords = "("+columns.lat()+", "+columns.lon()+")";
+		}
 		
-		List<GeoResult> results = new ArrayList<GeoResult>(hits.length);
-		for(int i=0; i<hits.length; i++)
-		{
-			int docId = hits[i].doc;
-			Document d = searcher.doc(docId);
-			String primLat = d.get("PRIM_LAT_DEC");
-			String primLon = d.get("PRIM_LONG_DEC");
-			String coords = "";
-			Angle lat = Angle.ZERO;
-			Angle lon = Angle.ZERO;
-			if(primLat != null && primLon != null)
+		String text = prefix +d.get("FEATURE_NAME")+", "+d.get("COUNTY_NAME")+"/"+d.get("STATE_ALPHA")+" ("
+		+d.get("FEATURE_CLASS")+"),  USGS Map: "+d.get("MAP_NAME") + coords + suffix;
+		return new GeoResult(pos, text, score);
+	}
+	
+	/**
+	 * The k features nearest to the point, closest first.  featureClass and
+	 * state are optional (null) exact-value filters.
+	 */
+	public List<GeoResult> findNearest(LatLon point, int k, String featureClass, String state) throws IOException
+	{
+		IndexSearcher searcher = searchers.acquire();
+		try
+		{
+			FeatureKDTree tree = tree(searcher);
+			return toResults(searcher, tree.nearest(point.getLatitude().getDegrees(),
+					point.getLongitude().getDegrees(), k, featureClass, state));
+		}finally
+		{
+			searchers.release(searcher);
+		}
+	}
+	
+	/**
+	 * Every feature within radiusMeters of the point, closest first.
+	 */
+	public List<GeoResult> findWithin(LatLon point, double radiusMeters, String featureClass, String state) throws IOException
+	{
+		IndexSearcher searcher = searchers.acquire();
+		try
+		{
+			FeatureKDTree tree = tree(searcher);
+			return toResults(searcher, tree.within(point.getLatitude().getDegrees(),
+					point.getLongitude().getDegrees(), radiusMeters, featureClass, state));
+		}finally
+		{
+			searchers.release(searcher);
+		}
+	}
+	
+	private List<GeoResult> toResults(IndexSearcher searcher, List<FeatureKDTree.Neighbor> neighbors) throws IOException
+	{
+		GeoColumns.Lookup columns = new GeoColumns.Lookup(searcher);
+		List<GeoResult> results = new ArrayList<GeoResult>(neighbors.size());
+		for(int i=0; i<neighbors.size(); i++)
+		{
+			FeatureKDTree.Neighbor n = neighbors.get(i);
+			String distance = String.format(" - %.2f km", n.meters / 1000.0);
+			results.add(toResult(searcher, columns, n.doc, (i+1) +". ", distance, Float.NaN));
+		}
+		return results;
+	}
+	
+	//the tree's doc IDs are only valid for the reader it was built from
+	private FeatureKDTree tree(IndexSearcher searcher) throws IOException
+	{
+		synchronized(treeLock)
+		{
+			long version = searcher.getIndexReader().getVersion();
+			if(tree == null || tree.getVersion() != version)
 			{
-				lat = Angle.fromDegrees(Double.parseDouble(primLat));
-				lon = Angle.fromDegrees(Double.parseDouble(primLon));
-				coords = "("+d.get("PRIM_LAT_DEC")+", "+d.get("PRIM_LONG_DEC")+")";
+				tree = FeatureKDTree.build(searcher);
 			}
-			
-			String text = (i+1) +". "+d.get("FEATURE_NAME")+", "+d.get("COUNTY_NAME")+"/"+d.get("STATE_ALPHA")+" ("
-			+d.get("FEATURE_CLASS")+"),  USGS Map: "+d.get("MAP_NAME") + coords;
-			
-					
-			results.add(new GeoResult(new LatLon(lat, lon), text));
+			return tree;
+		}
+	}
+	
+	/**
+	 * Up to k FEATURE_NAME terms starting with prefix, most common first,
+	 * optionally counting only features in one state.
+	 */
+	public List<String> suggest(String prefix, int k, String state) throws IOException
+	{
+		IndexSearcher searcher = searchers.acquire();
+		try
+		{
+			NameSuggester s;
+			synchronized(treeLock)
+			{
+				long version = searcher.getIndexReader().getVersion();
+				if(suggester == null || suggester.getVersion() != version)
+				{
+					suggester = NameSuggester.build(searcher.getIndexReader());
+				}
+				s = suggester;
+			}
+			return s.suggest(prefix, k, state);
+		}finally
+		{
+			searchers.release(searcher);
 		}
-		searcher.close();
-		Date end = new Date();
-		System.out.println(printFormattedMS(end.getTime() - start.getTime()));
-		return results;
 	}
 }
@@ -0,0 +1,249 @@
+package edu.gwu.spatial;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.search.ScoreDoc;
+
+import edu.gwu.search.ResultPage;
+
+/**
+ * LRU cache of viewport search results, keyed by the normalized query text
+ * and the viewport snapped outward to a grid.  The grid step scales with the
+ * viewport size, so small camera jitter maps to the same key.
+ *
+ * An entry whose search matched fewer documents than were collected holds
+ * every match in its box, so any smaller box inside it is answered by
+ * filtering the entry in memory.  Otherwise the entry holds only the top
+ * hits of the snapped box, and answers a viewport only when every one of
+ * them lies inside it: they are then also the viewport's top hits, and the
+ * entry's last hit starts the viewport's next page.  When some fall in the
+ * margin the snap added, the caller must search the viewport itself.
+ * Cached results carry no rank prefix; the caller numbers them.
+ *
+ * The cache is bounded by total result count and is cleared whenever the
+ * index generation changes.
+ */
+public class ViewportResultCache
+{
+	private final int maxResults;
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+	private int cachedResults;
+	private long generation = -1;
+	private long hits, containedHits, misses;
+
+	public ViewportResultCache(int maxResults)
+	{
+		this.maxResults = maxResults;
+	}
+
+	public static String normalize(String query)
+	{
+		return query.trim().replaceAll("\\s+", " ");
+	}
+
+	/**
+	 * Grid step for a box: the largest power of two degrees no bigger than
+	 * 1/64th of the box's longer side.
+	 */
+	static double quantum(double minLat, double maxLat, double minLon, double maxLon)
+	{
+		double span = Math.max(Math.max(maxLat - minLat, maxLon - minLon), 1e-6);
+		return Math.pow(2, Math.floor(Math.log(span / 64) / Math.log(2)));
+	}
+
+	/**
+	 * The box snapped outward to the grid: {minLat, maxLat, minLon, maxLon}.
+	 */
+	public static double[] snap(double minLat, double maxLat, double minLon, double maxLon)
+	{
+		double q = quantum(minLat, maxLat, minLon, maxLon);
+		return new double[]{
+			Math.floor(minLat / q) * q, Math.ceil(maxLat / q) * q,
+			Math.floor(minLon / q) * q, Math.ceil(maxLon / q) * q};
+	}
+
+	private static String key(String query, double[] box)
+	{
+		return query+"|"+box[0]+"|"+box[1]+"|"+box[2]+"|"+box[3];
+	}
+
+	/**
+	 * Cached first page for the query within the exact box, or null.  The box
+	 * passed in must be the unsnapped viewport.
+	 */
+	public synchronized ResultPage<GeoResult> get(long indexGeneration, String query,
+			double minLat, double maxLat, double minLon, double maxLon)
+	{
+		checkGeneration(indexGeneration);
+		Entry e = entries.get(key(query, snap(minLat, maxLat, minLon, maxLon)));
+		if(e != null)
+		{
+			ResultPage<GeoResult> page = e.page(minLat, maxLat, minLon, maxLon);
+			if(page != null)
+			{
+				hits++;
+				return page;
+			}
+		}
+		for(Entry candidate : entries.values())
+		{
+			if(candidate.complete && candidate.query.equals(query) && candidate.contains(minLat, maxLat, minLon, maxLon))
+			{
+				containedHits++;
+				return new ResultPage<GeoResult>(inside(candidate.results, minLat, maxLat, minLon, maxLon), null);
+			}
+		}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Whether the viewport's snapped box is cached as holding more matches
+	 * than were collected, so a search of the snapped box would not answer
+	 * the viewport unless none of its top hits fall in the margin.
+	 */
+	public synchronized boolean isTruncated(long indexGeneration, String query,
+			double minLat, double maxLat, double minLon, double maxLon)
+	{
+		checkGeneration(indexGeneration);
+		Entry e = entries.get(key(query, snap(minLat, maxLat, minLon, maxLon)));
+		return e != null && !e.complete;
+	}
+
+	/**
+	 * Stores results searched over the snapped box.  complete means they are
+	 * every match in that box, not just the top of a longer list; last is the
+	 * final hit of an incomplete list.  Returns the first page for the
+	 * viewport {minLat, maxLat, minLon, maxLon} the box was snapped from, or
+	 * null if the results cannot answer it and the viewport must be searched.
+	 */
+	public synchronized ResultPage<GeoResult> put(long indexGeneration, String query, double[] snappedBox,
+			List<GeoResult> results, boolean complete, ScoreDoc last, double[] viewport)
+	{
+		checkGeneration(indexGeneration);
+		Entry e = new Entry(query, snappedBox, results, complete, last);
+		Entry old = entries.put(key(query, snappedBox), e);
+		if(old != null)
+		{
+			cachedResults -= old.results.size();
+		}
+		cachedResults += results.size();
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while(cachedResults > maxResults && it.hasNext())
+		{
+			Entry eldest = it.next().getValue();
+			if(eldest == e)
+			{
+				break;
+			}
+			cachedResults -= eldest.results.size();
+			it.remove();
+		}
+		return e.page(viewport[0], viewport[1], viewport[2], viewport[3]);
+	}
+
+	/**
+	 * Lookups answered by the entry for the viewport's own snapped box.
+	 */
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	/**
+	 * Lookups answered by filtering a complete entry for a larger box.
+	 */
+	public synchronized long getContainedHits()
+	{
+		return containedHits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	public synchronized void clear()
+	{
+		entries.clear();
+		cachedResults = 0;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return "ViewportResultCache("+entries.size()+" entries, "+cachedResults+" results, "
+				+hits+" hits, "+containedHits+" contained hits, "+misses+" misses)";
+	}
+
+	/**
+	 * The results that lie in the box, in order.
+	 */
+	public static List<GeoResult> inside(List<GeoResult> results, double minLat, double maxLat, double minLon, double maxLon)
+	{
+		List<GeoResult> inside = new ArrayList<GeoResult>(results.size());
+		for(GeoResult r : results)
+		{
+			double lat = r.pos.getLatitude().getDegrees();
+			double lon = r.pos.getLongitude().getDegrees();
+			if(lat >= minLat && lat <= maxLat && lon >= minLon && lon <= maxLon)
+			{
+				inside.add(r);
+			}
+		}
+		return inside;
+	}
+
+	private void checkGeneration(long indexGeneration)
+	{
+		if(indexGeneration != generation)
+		{
+			clear();
+			generation = indexGeneration;
+		}
+	}
+
+	private static class Entry
+	{
+		final String query;
+		final double[] box;
+		final List<GeoResult> results;
+		final boolean complete;
+		final ScoreDoc last;
+
+		Entry(String query, double[] box, List<GeoResult> results, boolean complete, ScoreDoc last)
+		{
+			this.query = query;
+			this.box = box;
+			this.results = results;
+			this.complete = complete;
+			this.last = last;
+		}
+
+		boolean contains(double minLat, double maxLat, double minLon, double maxLon)
+		{
+			return box[0] <= minLat && box[1] >= maxLat && box[2] <= minLon && box[3] >= maxLon;
+		}
+
+		//first page for a viewport whose snapped box this is, or null if the top hits spill outside it
+		ResultPage<GeoResult> page(double minLat, double maxLat, double minLon, double maxLon)
+		{
+			List<GeoResult> inside = inside(results, minLat, maxLat, minLon, maxLon);
+			if(complete)
+			{
+				return new ResultPage<GeoResult>(inside, null);
+			}
+			if(inside.size() < results.size())
+			{
+				return null;
+			}
+			//later pages search the viewport, not the snapped box
+			return new ResultPage<GeoResult>(results, new ResultPage.Cursor(last, results.size(),
+					new double[]{minLat, maxLat, minLon, maxLon}));
+		}
+	}
+}
@@ -0,0 +1,305 @@
+package edu.gwu.text;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+
+/**
+ * Indexes every document under a directory tree.  The calling thread walks
+ * the tree and queues the files LuceneTextIndex can read; N worker threads
+ * extract their text and add them to one shared IndexWriter, which is
+ * committed and the searchers refreshed after every commitEvery files.  A
+ * file that cannot be read is skipped along with any of its pages already
+ * added; a failure of the writer stops the crawl.
+ *
+ * Workers hold commitLock's read lock while a file's documents go in, and
+ * the commit takes the write lock, so it waits for the files in flight and
+ * never makes part of a file durable.  The lock is fair, so the commit is
+ * not starved by workers starting new files.
+ */
+public class FolderCrawl
+{
+	/**
+	 * Called from the worker threads after each file.
+	 */
+	public interface Progress
+	{
+		void update(FolderCrawl crawl);
+	}
+
+	private static final File END_OF_TREE = new File("");
+
+	private final LuceneTextIndex index;
+	private final IndexWriter writer;
+	private final int workers;
+	private final int commitEvery;
+	private final Progress progress;
+	private final BlockingQueue<File> files;
+	private final AtomicInteger found = new AtomicInteger();
+	private final AtomicInteger indexed = new AtomicInteger();
+	private final AtomicInteger skipped = new AtomicInteger();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	private final ReadWriteLock commitLock = new ReentrantReadWriteLock(true);
+	private volatile boolean cancelled;
+	private long started;
+	private long finished;
+
+	public FolderCrawl(LuceneTextIndex index, IndexWriter writer, int workers, int commitEvery, Progress progress)
+	{
+		this.index = index;
+		this.writer = writer;
+		this.workers = Math.max(1, workers);
+		this.commitEvery = Math.max(1, commitEvery);
+		this.progress = progress;
+		this.files = new ArrayBlockingQueue<File>(this.workers * 4);
+	}
+
+	/**
+	 * Crawls the tree and returns the number of files indexed.  Everything
+	 * indexed is committed before returning; the writer is left open.
+	 */
+	public int run(File root) throws IOException
+	{
+		started = System.nanoTime();
+		List<Thread> threads = new ArrayList<Thread>(workers);
+		for(int i=0; i<workers; i++)
+		{
+			Thread t = new Thread(new Worker(), "crawl-worker-"+i);
+			t.setDaemon(true);
+			t.start();
+			threads.add(t);
+		}
+		try
+		{
+			walk(root.getCanonicalFile(), new HashSet<File>());
+		}finally
+		{
+			for(int i=0; i<workers; i++)
+			{
+				putQuietly(END_OF_TREE);
+			}
+			for(Thread t : threads)
+			{
+				joinQuietly(t);
+			}
+			finished = System.nanoTime();
+		}
+		Throwable t = failure.get();
+		if(t instanceof IOException)
+		{
+			throw (IOException)t;
+		}else if(t != null)
+		{
+			throw new IOException("Crawl worker failed", t);
+		}
+		writer.commit();
+		return indexed.get();
+	}
+
+	/**
+	 * Stops queueing files; the files already queued are still indexed.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+	}
+
+	//depth first in name order; visited guards against symbolic link cycles
+	private void walk(File dir, Set<File> visited) throws IOException
+	{
+		if(!visited.add(dir))
+		{
+			return;
+		}
+		File[] children = dir.listFiles();
+		if(children == null)
+		{
+			return;
+		}
+		Arrays.sort(children);
+		for(File child : children)
+		{
+			if(cancelled || failure.get() != null)
+			{
+				return;
+			}
+			if(child.isDirectory())
+			{
+				walk(child.getCanonicalFile(), visited);
+			}else if(LuceneTextIndex.accepts(child))
+			{
+				found.incrementAndGet();
+				putQuietly(child);
+			}
+		}
+	}
+
+	public int getFilesFound()
+	{
+		return found.get();
+	}
+
+	public int getFilesIndexed()
+	{
+		return indexed.get();
+	}
+
+	public int getFilesSkipped()
+	{
+		return skipped.get();
+	}
+
+	public long getBytesIndexed()
+	{
+		return bytes.get();
+	}
+
+	public double getFilesPerSecond()
+	{
+		return indexed.get() / elapsedSeconds();
+	}
+
+	public double getBytesPerSecond()
+	{
+		return bytes.get() / elapsedSeconds();
+	}
+
+	private double elapsedSeconds()
+	{
+		long end = finished == 0 ? System.nanoTime() : finished;
+		return Math.max(1e-3, (end - started) / 1e9);
+	}
+
+	private void putQuietly(File file) throws IOException
+	{
+		try
+		{
+			files.put(file);
+		}catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while queueing files");
+		}
+	}
+
+	private void joinQuietly(Thread t)
+	{
+		try
+		{
+			t.join();
+		}catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private class Worker implements Runnable
+	{
+		private void index(File file)
+		{
+			commitLock.readLock().lock();
+			try
+			{
+				if(!add(file))
+				{
+					return;
+				}
+			}finally
+			{
+				commitLock.readLock().unlock();
+			}
+			try
+			{
+				index.getMetrics().rowsIngested(1);
+				bytes.addAndGet(file.length());
+				if(indexed.incrementAndGet() % commitEvery == 0)
+				{
+					commitLock.writeLock().lock();
+					try
+					{
+						writer.commit();
+					}finally
+					{
+						commitLock.writeLock().unlock();
+					}
+					index.searchers.refresh();
+				}
+			}catch(Throwable t)
+			{
+				failure.compareAndSet(null, t);
+			}
+		}
+
+		//false when the file was skipped or the writer failed
+		private boolean add(File file)
+		{
+			try
+			{
+				index.addDocuments(file, writer);
+				return true;
+			}catch(WriterFailedException e)
+			{
+				failure.compareAndSet(null, e.getCause());
+				return false;
+			}catch(Exception e)
+			{
+				//the file could not be read; drop any pages added before it failed
+				try
+				{
+					writer.deleteDocuments(new Term("path", file.getCanonicalPath()));
+				}catch(Throwable t)
+				{
+					failure.compareAndSet(null, t);
+					return false;
+				}
+				System.out.println("Skipping "+file+": "+e);
+				skipped.incrementAndGet();
+				return false;
+			}catch(Throwable t)
+			{
+				failure.compareAndSet(null, t);
+				return false;
+			}
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				File file = files.take();
+				while(file != END_OF_TREE)
+				{
+					//keep draining after a failure so the walker never blocks
+					if(failure.get() == null)
+					{
+						index(file);
+						if(progress != null)
+						{
+							progress.update(FolderCrawl.this);
+						}
+					}
+					file = files.take();
+				}
+			}catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
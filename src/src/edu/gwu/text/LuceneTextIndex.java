@@ -4,19 +4,21 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.LinkedList;
 import java.util.List;
 
-import org.apache.lucene.analysis.CachingTokenFilter;
-import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.DateTools;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Field.Index;
 import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.Field.TermVector;
+import org.apache.lucene.document.FieldSelector;
 import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.document.MapFieldSelector;
 import org.apache.lucene.index.CorruptIndexException;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
@@ -26,21 +28,12 @@ import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopScoreDocCollector;
-import org.apache.lucene.search.highlight.Fragmenter;
-import org.apache.lucene.search.highlight.Highlighter;
+import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
-import org.apache.lucene.search.highlight.QueryScorer;
-import org.apache.lucene.search.highlight.SimpleSpanFragmenter;
-import org.apache.lucene.search.highlight.TokenSources;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.SimpleFSDirectory;
 import org.apache.lucene.util.Version;
-import org.apache.pdfbox.cos.COSDocument;
-import org.apache.pdfbox.lucene.LucenePDFDocument;
-import org.apache.pdfbox.pdfparser.PDFParser;
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.util.PDFTextStripper;
+import org.apache.pdfbox.pdmodel.PDDocumentInformation;
 import org.apache.tika.exception.TikaException;
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.parser.AutoDetectParser;
@@ -49,13 +42,39 @@ import org.apache.tika.parser.Parser;
 import org.apache.tika.sax.BodyContentHandler;
 import org.xml.sax.SAXException;
 
+import edu.gwu.search.DirectoryFactory;
+import edu.gwu.search.IndexMetrics;
+import edu.gwu.search.MeteredIndexWriter;
+import edu.gwu.search.PhaseTimer;
+import edu.gwu.search.ResultPage;
+import edu.gwu.search.SearchTicket;
+import edu.gwu.search.SharedSearcher;
+
 public class LuceneTextIndex {
 	StandardAnalyzer analyzer = new StandardAnalyzer(Version.LUCENE_36);
 	Directory index;	
+	SharedSearcher searchers;
+	private final IndexMetrics metrics = new IndexMetrics();
+	private final TextHighlighter highlighter = new TextHighlighter(analyzer);
+	static final int PAGE_SIZE = 100;
+	//files between commits during addFolder
+	static final int COMMIT_EVERY = 500;
+	//everything a result shows but its fragments; "contents" is read only to highlight
+	private static final FieldSelector DISPLAY_FIELDS = new MapFieldSelector(
+			"name", "path", "page", "title", "author");
 	
 	public LuceneTextIndex(File indexDir) throws IOException
 	{
-		index = new SimpleFSDirectory(indexDir);
+		index = DirectoryFactory.open(indexDir);
+		searchers = new SharedSearcher(new Directory[]{index}, metrics);
+		metrics.register("LuceneTextIndex", indexDir.getAbsolutePath());
+	}
+	
+	public void close() throws IOException
+	{
+		metrics.unregister();
+		searchers.close();
+		index.close();
 	}
 	
 	public void addFile(File file) throws IOException, SAXException, TikaException
@@ -66,8 +85,194 @@ public class LuceneTextIndex {
 	public void addFileTika(File file) throws IOException, SAXException, TikaException
 	{
 		IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_36, analyzer);
-		IndexWriter w = new IndexWriter(index, config);
+		IndexWriter w = new MeteredIndexWriter(index, config, metrics);
 
+		metrics.ingestStarted();
+		try
+		{
+			Document doc = tikaDocument(file);
+			System.out.println("Contents: "+doc.get("contents").length());
+			w.addDocument(doc);
+			metrics.rowsIngested(1);
+		}finally
+		{
+			metrics.ingestFinished();
+			w.close();
+		}
+		searchers.refresh();
+	}
+	
+	public void addFilePDFBox(File file) throws IOException
+	{
+		IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_36, analyzer);
+		IndexWriter w = new MeteredIndexWriter(index, config, metrics);
+		
+		metrics.ingestStarted();
+		try
+		{
+			if(file.getName().toLowerCase().endsWith("pdf"))
+			{
+				addPDF(file, w);
+				metrics.rowsIngested(1);
+			}
+		}finally
+		{
+			metrics.ingestFinished();
+			w.close();
+		}
+		searchers.refresh();
+	}
+	
+	/**
+	 * Indexes every PDF and Word document under the folder, using all cores.
+	 */
+	public FolderCrawl addFolder(File folder) throws IOException
+	{
+		return addFolder(folder, Runtime.getRuntime().availableProcessors(), null);
+	}
+	
+	/**
+	 * Crawls the folder with one writer for the whole crawl, committing and
+	 * refreshing the searchers every COMMIT_EVERY files.  progress may be null.
+	 */
+	public FolderCrawl addFolder(File folder, int workers, FolderCrawl.Progress progress) throws IOException
+	{
+		IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_36, analyzer);
+		config.setRAMBufferSizeMB(256.0);
+		config.setMaxThreadStates(Math.max(1, workers));
+		IndexWriter w = new MeteredIndexWriter(index, config, metrics);
+		
+		FolderCrawl crawl = new FolderCrawl(this, w, workers, COMMIT_EVERY, progress);
+		metrics.ingestStarted();
+		try
+		{
+			crawl.run(folder);
+		}finally
+		{
+			metrics.ingestFinished();
+			w.close();
+		}
+		searchers.refresh();
+		System.out.println(String.format("Indexed %d files (%.1f MB) from %s with %d workers: %.1f files/sec, %.2f MB/sec, %d skipped.",
+				crawl.getFilesIndexed(), crawl.getBytesIndexed() / 1048576.0, folder, workers,
+				crawl.getFilesPerSecond(), crawl.getBytesPerSecond() / 1048576.0, crawl.getFilesSkipped()));
+		return crawl;
+	}
+	
+	/**
+	 * Whether addFolder picks up the file: PDFs, and Word documents through Tika.
+	 */
+	static boolean accepts(File file)
+	{
+		String name = file.getName().toLowerCase();
+		return name.endsWith(".pdf") || name.endsWith(".doc") || name.endsWith(".docx");
+	}
+	
+	/**
+	 * Adds the file's documents to the writer, replacing any indexed before
+	 * from the same path.  Returns the number of pages added, 1 for a file
+	 * that is not split into pages.  Failures of the writer are thrown as
+	 * WriterFailedException, anything else failed to read the file.
+	 */
+	int addDocuments(File file, IndexWriter w) throws IOException, SAXException, TikaException
+	{
+		if(file.getName().toLowerCase().endsWith("pdf"))
+		{
+			return addPDF(file, w);
+		}
+		Document doc = tikaDocument(file);
+		add(w, new Term("path", doc.get("path")), doc);
+		return 1;
+	}
+	
+	/**
+	 * Indexes a PDF in one pass as a document holding its metadata plus one
+	 * document per page.  Every page has the file's name and path and its
+	 * page number, so a hit only has to highlight the page it matched.
+	 */
+	private int addPDF(File file, final IndexWriter w) throws IOException
+	{
+		final String path = file.getCanonicalPath();
+		final String name = file.getName();
+		final int[] pages = new int[1];
+		add(w, new Term("path", path), null);
+		new PDFPageExtractor().extract(file, new PDFPageExtractor.PageHandler()
+		{
+			@Override
+			public void start(PDDocument pdf) throws IOException
+			{
+				Document doc = new Document();
+				doc.add(new Field("name", name, Store.YES, Index.NOT_ANALYZED));
+				doc.add(new Field("path", path, Store.YES, Index.NOT_ANALYZED));
+				doc.add(new Field("pages", String.valueOf(pdf.getNumberOfPages()), Store.YES, Index.NO));
+				PDDocumentInformation info = pdf.getDocumentInformation();
+				addText(doc, "title", info.getTitle());
+				addText(doc, "author", info.getAuthor());
+				addText(doc, "subject", info.getSubject());
+				addText(doc, "keywords", info.getKeywords());
+				addText(doc, "creator", info.getCreator());
+				addText(doc, "producer", info.getProducer());
+				addDate(doc, "created", info.getCreationDate());
+				addDate(doc, "modified", info.getModificationDate());
+				add(w, null, doc);
+			}
+			
+			@Override
+			public void page(int number, String text) throws IOException
+			{
+				Document doc = new Document();
+				doc.add(new Field("name", name, Store.YES, Index.NOT_ANALYZED));
+				doc.add(new Field("path", path, Store.YES, Index.NOT_ANALYZED));
+				doc.add(new Field("page", String.valueOf(number), Store.YES, Index.NOT_ANALYZED));
+				doc.add(new Field("contents", text, Store.YES, Index.ANALYZED, TermVector.WITH_POSITIONS_OFFSETS));
+				add(w, null, doc);
+				pages[0]++;
+			}
+		});
+		return pages[0];
+	}
+	
+	//deletes then adds, either may be null; wraps the writer's failures to tell them from the file's
+	private static void add(IndexWriter w, Term delete, Document doc) throws WriterFailedException
+	{
+		try
+		{
+			if(delete != null)
+			{
+				w.deleteDocuments(delete);
+			}
+			if(doc != null)
+			{
+				w.addDocument(doc);
+			}
+		}catch(IOException e)
+		{
+			throw new WriterFailedException(e);
+		}catch(RuntimeException e)
+		{
+			throw new WriterFailedException(e);
+		}
+	}
+	
+	private static void addText(Document doc, String field, String value)
+	{
+		if(value != null && value.trim().length() > 0)
+		{
+			doc.add(new Field(field, value, Store.YES, Index.ANALYZED));
+		}
+	}
+	
+	private static void addDate(Document doc, String field, Calendar value)
+	{
+		if(value != null)
+		{
+			doc.add(new Field(field, DateTools.dateToString(value.getTime(), DateTools.Resolution.SECOND),
+					Store.YES, Index.NOT_ANALYZED));
+		}
+	}
+	
+	private Document tikaDocument(File file) throws IOException, SAXException, TikaException
+	{
 	    FileInputStream is = new FileInputStream(file);
 
 	    BodyContentHandler contenthandler = new BodyContentHandler();
@@ -75,7 +280,13 @@ public class LuceneTextIndex {
 	    metadata.set(Metadata.RESOURCE_NAME_KEY, file.getName());
 	    Parser parser = new AutoDetectParser();
 	    ParseContext ctxt = new ParseContext();
-	    parser.parse(is, contenthandler, metadata, ctxt);
+	    try
+	    {
+	    	parser.parse(is, contenthandler, metadata, ctxt);
+	    }finally
+	    {
+	    	is.close();
+	    }
 
 	    Document doc = new Document();
 	    doc.add(new Field("name",file.getName(),Field.Store.YES, Field.Index.NOT_ANALYZED));
@@ -88,39 +299,14 @@ public class LuceneTextIndex {
 	    {
 	    	doc.add(new Field("author",metadata.get(Metadata.AUTHOR),Field.Store.YES, Field.Index.ANALYZED));
 	    }
-	    String contents = contenthandler.toString();
-	    System.out.println("Contents: "+contents.length());
-	    doc.add(new Field("contents",contents,Field.Store.YES,Field.Index.ANALYZED));
-	    	    
-	    w.addDocument(doc);
-	    w.close();
+	    doc.add(new Field("contents",contenthandler.toString(),Field.Store.YES,Field.Index.ANALYZED,
+	    		Field.TermVector.WITH_POSITIONS_OFFSETS));
+	    return doc;
 	}
 	
-	public void addFilePDFBox(File file) throws IOException
+	public IndexMetrics getMetrics()
 	{
-		IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_36, analyzer);
-		IndexWriter w = new IndexWriter(index, config);
-		
-		if(file.getName().toLowerCase().endsWith("pdf"))
-		{
-			
-			Document pdfDoc = LucenePDFDocument.getDocument(file);
-			List<Fieldable> fields = pdfDoc.getFields();
-			for(Fieldable field : fields)
-			{
-				System.out.println("Field name: "+field.name()+", field value: "+field.stringValue());
-			}
-			
-			PDFParser parser = new PDFParser(new FileInputStream(file));  
-			parser.parse();  
-			COSDocument cd = parser.getDocument();  
-			PDFTextStripper stripper = new PDFTextStripper();			
-			String text = stripper.getText(new PDDocument(cd));
-			pdfDoc.add(new Field("contents", text, Store.YES, Index.ANALYZED));
-			w.addDocument(pdfDoc);
-			cd.close();			
-		}
-		w.close();		
+		return metrics;
 	}
 	
 	public List getTerms()
@@ -128,14 +314,20 @@ public class LuceneTextIndex {
 		List<String> results = new LinkedList<String>();
 		try
 		{
-			IndexReader reader = IndexReader.open(index);
-			TermEnum enumTerm = reader.terms();
-
-			
-			while(enumTerm.next())
+			IndexSearcher searcher = searchers.acquire();
+			try
+			{
+				TermEnum enumTerm = searcher.getIndexReader().terms();
+				
+				while(enumTerm.next())
+				{
+					Term term = enumTerm.term();
+					results.add(term.field()+": "+term.text()+" (doc freq="+enumTerm.docFreq()+")");
+				}
+				enumTerm.close();
+			}finally
 			{
-				Term term = enumTerm.term();
-				results.add(term.field()+": "+term.text()+" (doc freq="+enumTerm.docFreq()+")");
+				searchers.release(searcher);
 			}
 		}catch(IOException e)
 		{
@@ -144,16 +336,17 @@ public class LuceneTextIndex {
 		return results;
 	}
 	
-	private String highlightResults(Query q, Fieldable f) throws IOException, InvalidTokenOffsetsException
+	/**
+	 * Highlights by re-analyzing the field's text, as documents indexed
+	 * without term vectors are.
+	 */
+	String highlightResults(Query q, Fieldable f) throws IOException, InvalidTokenOffsetsException
+	{
+		return matches(highlighter.analyzedFragments(q, f.stringValue()));
+	}
+	
+	private static String matches(String[] fragments)
 	{
-		TokenStream ts = TokenSources.getTokenStream("contents", f.stringValue(), analyzer);
-		QueryScorer scorer = new QueryScorer(q, "contents");
-		scorer.init(new CachingTokenFilter(ts));
-		
-		Fragmenter frag = new SimpleSpanFragmenter(scorer, 30);
-		Highlighter highlighter = new Highlighter(scorer);
-		highlighter.setTextFragmenter(frag);
-		String[] fragments = highlighter.getBestFragments(ts, f.stringValue(), 10);
 		StringBuffer res = new StringBuffer();
 		res.append("<b>Matches:</b><br/>");
 		for(String fragment : fragments)
@@ -166,101 +359,249 @@ public class LuceneTextIndex {
 	
 	public List findResults(String query) throws ParseException, CorruptIndexException, IOException, InvalidTokenOffsetsException
 	{
-		Query q = new QueryParser(Version.LUCENE_36, "contents", analyzer).parse(query);
-		
-		int hitsPerPage = 100;
-		IndexReader reader = IndexReader.open(index);
-		IndexSearcher searcher = new IndexSearcher(reader);		
-		TopScoreDocCollector collector = TopScoreDocCollector.create(hitsPerPage, true);
+		return findPage(query, null, PAGE_SIZE, false).getResults();
+	}
+	
+	public List findResultsExplain(String query) throws ParseException, CorruptIndexException, IOException, InvalidTokenOffsetsException
+	{
+		return findPage(query, null, PAGE_SIZE, true).getResults();
+	}
+	
+	/**
+	 * The top n hits with their highlighted fragments, unformatted.
+	 */
+	public List<TextResult> findHits(String query, int n) throws ParseException, IOException, InvalidTokenOffsetsException
+	{
+		PhaseTimer timer = metrics.timer();
+		Query q = parse(query, timer);
 		
+		IndexSearcher searcher = searchers.acquire();
 		try
 		{
-			searcher.search(q, collector);		
-			
-			ScoreDoc[] hits = collector.topDocs().scoreDocs;
-			List results = new ArrayList(hits.length);
+			ScoreDoc[] hits = searchers.search(searcher, q, null, null, n, null, timer).scoreDocs;
+			List<TextResult> results = new ArrayList<TextResult>(hits.length);
+			int[] docs = new int[hits.length];
+			for(int i=0; i<hits.length; i++)
+			{
+				docs[i] = hits[i].doc;
+			}
+			long start = System.nanoTime();
+			String[][] fragments = highlighter.fragments(q, searcher.getIndexReader(), docs, null);
+			timer.add(IndexMetrics.Phase.HIGHLIGHT, start);
 			for(int i=0; i<hits.length; i++)
 			{
-				Document d = searcher.doc(hits[i].doc);
-				StringBuffer res = new StringBuffer();
-				res.append("<html>");
-				Fieldable f = d.getFieldable("path");
-				if(f != null)
+				start = System.nanoTime();
+				Document d = searcher.doc(hits[i].doc, DISPLAY_FIELDS);
+				timer.add(IndexMetrics.Phase.FETCH, start);
+				String page = d.get("page");
+				results.add(new TextResult(d.get("name"), d.get("path"), page == null ? 0 : Integer.parseInt(page),
+						hits[i].score, fragments[i]));
+			}
+			timer.finish(searcher);
+			return results;
+		}finally
+		{
+			searchers.release(searcher);
+		}
+	}
+	
+	/**
+	 * One page of HTML-formatted hits.  Pass null for the first page and the
+	 * previous page's getNext() for each page after it.
+	 */
+	public ResultPage<String> findPage(String query, ResultPage.Cursor after, int pageSize, boolean explain) throws ParseException, CorruptIndexException, IOException, InvalidTokenOffsetsException
+	{
+		return findPage(query, after, pageSize, explain, null);
+	}
+	
+	/**
+	 * findPage under a SearchTicket.  A cancel also stops highlighting; a page
+	 * cut short by the deadline has no next cursor, and hits the deadline
+	 * left unhighlighted show only their path.
+	 */
+	public ResultPage<String> findPage(String query, ResultPage.Cursor after, int pageSize, boolean explain,
+			SearchTicket ticket) throws ParseException, CorruptIndexException, IOException, InvalidTokenOffsetsException
+	{
+		ResultPage<TextRow> rows = page(query, after, pageSize, explain, ticket, true);
+		List<String> results = new ArrayList<String>(rows.getResults().size());
+		for(TextRow row : rows.getResults())
+		{
+			results.add(row.toString());
+		}
+		return new ResultPage<String>(results, rows.getNext());
+	}
+	
+	/**
+	 * findPage without the highlighting, for lists that only highlight the
+	 * rows they show; pass those rows to highlight.
+	 */
+	public ResultPage<TextRow> findRows(String query, ResultPage.Cursor after, int pageSize, boolean explain,
+			SearchTicket ticket) throws ParseException, CorruptIndexException, IOException, InvalidTokenOffsetsException
+	{
+		return page(query, after, pageSize, explain, ticket, false);
+	}
+	
+	/**
+	 * Adds the highlighted fragments to rows from findRows, all in parallel.
+	 * Rows found on a reader the index has since refreshed past are
+	 * highlighted with a note to search again, since their doc numbers may
+	 * now belong to other documents.
+	 */
+	public void highlight(List<TextRow> rows, SearchTicket ticket) throws IOException, InvalidTokenOffsetsException
+	{
+		if(rows.isEmpty())
+		{
+			return;
+		}
+		PhaseTimer timer = metrics.timer();
+		Query q = rows.get(0).query;
+		timer.setQuery(q.toString(), q);
+		IndexSearcher searcher = searchers.acquire();
+		try
+		{
+			long version = searcher.getIndexReader().getVersion();
+			List<TextRow> current = new ArrayList<TextRow>(rows.size());
+			for(TextRow row : rows)
+			{
+				if(row.version == version)
 				{
-					res.append("<b>");
-					res.append(f.name()+": ");
-					res.append("</b>");
-					res.append(f.stringValue());				
-					res.append("<br/>");
-				}
-				f = d.getFieldable("contents");
-				if(f != null)
+					current.add(row);
+				}else
 				{
-					res.append(highlightResults(q, f));
+					row.setMatches("<i>The index has changed; search again to see matches.</i>");
 				}
-				res.append("</html>");
-				results.add(res.toString());				
 			}
-			
-			return results;
+			highlight(searcher, current, ticket, timer);
+			timer.finish(searcher);
 		}finally
 		{
-			searcher.close();	
+			searchers.release(searcher);
 		}
 	}
 	
-	public List findResultsExplain(String query) throws ParseException, CorruptIndexException, IOException, InvalidTokenOffsetsException
+	private ResultPage<TextRow> page(String query, ResultPage.Cursor after, int pageSize, boolean explain,
+			SearchTicket ticket, boolean highlight) throws ParseException, IOException, InvalidTokenOffsetsException
 	{
-		Query q = new QueryParser(Version.LUCENE_36, "contents", analyzer).parse(query);
+		PhaseTimer timer = metrics.timer();
+		Query q = parse(query, timer);
 		
-		int hitsPerPage = 100;
-		IndexReader reader = IndexReader.open(index);
-		IndexSearcher searcher = new IndexSearcher(reader);		
-		TopScoreDocCollector collector = TopScoreDocCollector.create(hitsPerPage, true);
-				
+		IndexSearcher searcher = searchers.acquire();
 		try
 		{
-			searcher.search(q, collector);		
+			TopDocs top = searchers.search(searcher, q, null, after == null ? null : after.getAfter(), pageSize,
+					ticket, timer);
 			
-			ScoreDoc[] hits = collector.topDocs().scoreDocs;
-			List results = new ArrayList(hits.length);
-			String [] displayFields = new String[]{"name", "path", "summary"};
+			ScoreDoc[] hits = top.scoreDocs;
+			long version = searcher.getIndexReader().getVersion();
+			List<TextRow> rows = new ArrayList<TextRow>(hits.length);
 			for(int i=0; i<hits.length; i++)
-			{				
-				Document d = searcher.doc(hits[i].doc);
-				StringBuffer res = new StringBuffer();
-				res.append("<html>");			
-				
-				for(String dispField : displayFields)
-				{
-					Fieldable f = d.getFieldable(dispField);
-					if(f == null)
-					{
-						continue;
-					}
-					res.append("<b>");
-					res.append(f.name()+": ");
-					res.append("</b>");
-					res.append(f.stringValue());				
-					res.append("<br/>");
-				}
-				res.append("<b>Score: </b>: "+hits[i].score+"<br/>");
-				res.append("Explanation:<br/>");
-				res.append(searcher.explain(q, hits[i].doc).toHtml());
-				
-				Fieldable f = d.getFieldable("contents");
-				if(f != null)
+			{
+				if(ticket != null)
 				{
-					res.append(highlightResults(q, f));
+					ticket.checkpoint();
 				}
-				res.append("</html>");
-				results.add(res.toString());
-				
+				long start = System.nanoTime();
+				Document d = searcher.doc(hits[i].doc, DISPLAY_FIELDS);
+				timer.add(IndexMetrics.Phase.FETCH, start);
+				String header = explain ? formatExplained(searcher, q, hits[i], d, timer) : format(d);
+				rows.add(new TextRow(q, hits[i].doc, version, header));
 			}
-			return results;
+			if(highlight)
+			{
+				highlight(searcher, rows, ticket, timer);
+			}
+			timer.finish(searcher);
+			
+			int offset = after == null ? 0 : after.getOffset();
+			ResultPage.Cursor next = null;
+			boolean partial = ticket != null && ticket.isPartial();
+			if(!partial && hits.length == pageSize && top.totalHits > offset + hits.length)
+			{
+				next = new ResultPage.Cursor(hits[hits.length - 1], offset + hits.length, query);
+			}
+			return new ResultPage<TextRow>(rows, next);
 		}finally
 		{
-			searcher.close();	
+			searchers.release(searcher);
+		}
+	}
+	
+	private void highlight(IndexSearcher searcher, List<TextRow> rows, SearchTicket ticket, PhaseTimer timer)
+			throws IOException, InvalidTokenOffsetsException
+	{
+		if(rows.isEmpty())
+		{
+			return;
+		}
+		int[] docs = new int[rows.size()];
+		for(int i=0; i<docs.length; i++)
+		{
+			docs[i] = rows.get(i).doc;
+		}
+		long start = System.nanoTime();
+		String[][] fragments = highlighter.fragments(rows.get(0).query, searcher.getIndexReader(), docs, ticket);
+		timer.add(IndexMetrics.Phase.HIGHLIGHT, start);
+		for(int i=0; i<docs.length; i++)
+		{
+			if(fragments[i] != null)
+			{
+				rows.get(i).setMatches(fragments[i].length == 0 ? "" : matches(fragments[i]));
+			}
+		}
+	}
+	
+	private Query parse(String query, PhaseTimer timer) throws ParseException
+	{
+		long start = System.nanoTime();
+		Query q = new QueryParser(Version.LUCENE_36, "contents", analyzer).parse(query);
+		timer.add(IndexMetrics.Phase.PARSE, start);
+		timer.setQuery(query, q);
+		return q;
+	}
+	
+	private String format(Document d)
+	{
+		StringBuffer res = new StringBuffer();
+		Fieldable f = d.getFieldable("path");
+		if(f != null)
+		{
+			res.append("<b>");
+			res.append(f.name()+": ");
+			res.append("</b>");
+			res.append(f.stringValue());				
+			if(d.get("page") != null)
+			{
+				res.append(", page "+d.get("page"));
+			}
+			res.append("<br/>");
+		}
+		return res.toString();
+	}
+	
+	private String formatExplained(IndexSearcher searcher, Query q, ScoreDoc hit, Document d, PhaseTimer timer)
+			throws IOException
+	{
+		String [] displayFields = new String[]{"name", "path", "page", "title", "author"};
+		StringBuffer res = new StringBuffer();
+		
+		for(String dispField : displayFields)
+		{
+			Fieldable f = d.getFieldable(dispField);
+			if(f == null)
+			{
+				continue;
+			}
+			res.append("<b>");
+			res.append(f.name()+": ");
+			res.append("</b>");
+			res.append(f.stringValue());				
+			res.append("<br/>");
 		}
-	}	
+		res.append("<b>Score: </b>: "+hit.score+"<br/>");
+		res.append("Explanation:<br/>");
+		long start = System.nanoTime();
+		res.append(searcher.explain(q, hit.doc).toHtml());
+		timer.add(IndexMetrics.Phase.EXPLAIN, start);
+		return res.toString();
+	}
 }
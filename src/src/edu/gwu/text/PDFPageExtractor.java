@@ -0,0 +1,84 @@
+package edu.gwu.text;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.apache.pdfbox.exceptions.CryptographyException;
+import org.apache.pdfbox.exceptions.InvalidPasswordException;
+import org.apache.pdfbox.io.RandomAccessFile;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.util.PDFTextStripper;
+
+/**
+ * Parses a PDF once and hands its text over a page at a time, so only one
+ * page's text is in memory however long the document is.  The parsed
+ * object streams are kept in a scratch file rather than on the heap.
+ */
+class PDFPageExtractor extends PDFTextStripper
+{
+	interface PageHandler
+	{
+		/**
+		 * Called with the document's metadata before the first page.
+		 */
+		void start(PDDocument pdf) throws IOException;
+
+		/**
+		 * Pages are numbered from 1.
+		 */
+		void page(int number, String text) throws IOException;
+	}
+
+	private final StringWriter page = new StringWriter();
+	private PageHandler handler;
+
+	PDFPageExtractor() throws IOException
+	{
+	}
+
+	void extract(File file, PageHandler handler) throws IOException
+	{
+		this.handler = handler;
+		File scratch = File.createTempFile("pdf-scratch", ".tmp");
+		RandomAccessFile scratchFile = new RandomAccessFile(scratch, "rw");
+		try
+		{
+			PDDocument pdf = PDDocument.load(file, scratchFile);
+			try
+			{
+				if(pdf.isEncrypted())
+				{
+					//most encrypted PDFs only restrict editing and open with an empty password
+					pdf.decrypt("");
+				}
+				handler.start(pdf);
+				writeText(pdf, page);
+			}catch(CryptographyException e)
+			{
+				throw new IOException("Cannot decrypt "+file, e);
+			}catch(InvalidPasswordException e)
+			{
+				throw new IOException("Cannot decrypt "+file, e);
+			}finally
+			{
+				pdf.close();
+			}
+		}finally
+		{
+			scratchFile.close();
+			scratch.delete();
+			this.handler = null;
+		}
+	}
+
+	@Override
+	protected void endPage(PDPage pdPage) throws IOException
+	{
+		super.endPage(pdPage);
+		page.flush();
+		handler.page(getCurrentPageNo(), page.toString());
+		page.getBuffer().setLength(0);
+	}
+}
@@ -0,0 +1,170 @@
+package edu.gwu.text;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CachingTokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.MapFieldSelector;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.highlight.Fragmenter;
+import org.apache.lucene.search.highlight.Highlighter;
+import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
+import org.apache.lucene.search.highlight.QueryScorer;
+import org.apache.lucene.search.highlight.SimpleSpanFragmenter;
+import org.apache.lucene.search.highlight.TokenSources;
+import org.apache.lucene.search.vectorhighlight.FastVectorHighlighter;
+import org.apache.lucene.search.vectorhighlight.FieldQuery;
+import org.apache.lucene.search.vectorhighlight.ScoreOrderFragmentsBuilder;
+import org.apache.lucene.search.vectorhighlight.SimpleFragListBuilder;
+
+import edu.gwu.search.SearchCancelledException;
+import edu.gwu.search.SearchTicket;
+
+/**
+ * Best fragments of "contents" for a set of hits, highlighted with &lt;B&gt;
+ * tags.  Documents indexed with position and offset term vectors are
+ * highlighted from the vectors, without analyzing their text again; older
+ * documents fall back to re-analyzing the stored text.  The hits are
+ * highlighted in parallel on a pool with one thread per core, shared by
+ * every search.
+ */
+class TextHighlighter
+{
+	static final String FIELD = "contents";
+	private static final int FRAGMENT_CHARS = 100;
+	private static final int FRAGMENTS = 10;
+	private static final FieldSelector TEXT = new MapFieldSelector(FIELD);
+
+	private static final ExecutorService pool = Executors.newFixedThreadPool(
+			Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r, "highlight");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	private final Analyzer analyzer;
+	private final FastVectorHighlighter vectors = new FastVectorHighlighter(true, true,
+			new SimpleFragListBuilder(), new ScoreOrderFragmentsBuilder(new String[]{"<B>"}, new String[]{"</B>"}));
+
+	TextHighlighter(Analyzer analyzer)
+	{
+		this.analyzer = analyzer;
+	}
+
+	/**
+	 * Fragments for each of the docs, in order, or null where a ticket's
+	 * deadline passed first.  A cancelled ticket stops the remaining docs and
+	 * throws SearchCancelledException.
+	 */
+	String[][] fragments(final Query q, final IndexReader reader, int[] docs, final SearchTicket ticket)
+			throws IOException, InvalidTokenOffsetsException
+	{
+		//expands prefix and wildcard terms against this reader, once for all the docs
+		final FieldQuery fieldQuery = vectors.getFieldQuery(q, reader);
+		List<Future<String[]>> futures = new ArrayList<Future<String[]>>(docs.length);
+		for(final int doc : docs)
+		{
+			futures.add(pool.submit(new Callable<String[]>()
+			{
+				@Override
+				public String[] call() throws IOException, InvalidTokenOffsetsException
+				{
+					if(ticket != null)
+					{
+						ticket.checkpoint();
+						if(ticket.isPartial())
+						{
+							return null;
+						}
+					}
+					return fragments(fieldQuery, q, reader, doc);
+				}
+			}));
+		}
+		String[][] fragments = new String[docs.length][];
+		try
+		{
+			for(int i=0; i<fragments.length; i++)
+			{
+				fragments[i] = get(futures.get(i));
+			}
+		}finally
+		{
+			for(Future<String[]> f : futures)
+			{
+				f.cancel(false);
+			}
+		}
+		return fragments;
+	}
+
+	private String[] fragments(FieldQuery fieldQuery, Query q, IndexReader reader, int doc)
+			throws IOException, InvalidTokenOffsetsException
+	{
+		String[] fragments = vectors.getBestFragments(fieldQuery, reader, doc, FIELD, FRAGMENT_CHARS, FRAGMENTS);
+		if((fragments == null || fragments.length == 0) && reader.getTermFreqVector(doc, FIELD) == null)
+		{
+			String text = reader.document(doc, TEXT).get(FIELD);
+			return text == null ? new String[0] : analyzedFragments(q, text);
+		}
+		return fragments == null ? new String[0] : fragments;
+	}
+
+	/**
+	 * Re-analyzes the text to find the query's terms, for documents indexed
+	 * without term vectors.
+	 */
+	String[] analyzedFragments(Query q, String text) throws IOException, InvalidTokenOffsetsException
+	{
+		TokenStream ts = TokenSources.getTokenStream(FIELD, text, analyzer);
+		QueryScorer scorer = new QueryScorer(q, FIELD);
+		scorer.init(new CachingTokenFilter(ts));
+
+		Fragmenter frag = new SimpleSpanFragmenter(scorer, 30);
+		Highlighter highlighter = new Highlighter(scorer);
+		highlighter.setTextFragmenter(frag);
+		return highlighter.getBestFragments(ts, text, FRAGMENTS);
+	}
+
+	private static String[] get(Future<String[]> future) throws IOException, InvalidTokenOffsetsException
+	{
+		try
+		{
+			return future.get();
+		}catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new SearchCancelledException();
+		}catch(ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException)
+			{
+				throw (IOException)cause;
+			}else if(cause instanceof InvalidTokenOffsetsException)
+			{
+				throw (InvalidTokenOffsetsException)cause;
+			}else if(cause instanceof RuntimeException)
+			{
+				throw (RuntimeException)cause;
+			}
+			throw new IOException("Highlighting failed", cause);
+		}
+	}
+}
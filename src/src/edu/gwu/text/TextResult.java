@@ -0,0 +1,29 @@
+package edu.gwu.text;
+
+/**
+ * One document hit as plain data, for callers that render results
+ * themselves.  Fragments are highlighted with &lt;B&gt; tags.
+ */
+public class TextResult
+{
+	public final String name;
+	public final String path;
+	//0 for a hit on a whole file rather than one page of it
+	public final int page;
+	public final float score;
+	public final String[] fragments;
+	public TextResult(String name, String path, int page, float score, String[] fragments)
+	{
+		this.name = name;
+		this.path = path;
+		this.page = page;
+		this.score = score;
+		this.fragments = fragments;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return path;
+	}
+}
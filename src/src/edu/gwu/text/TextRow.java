@@ -0,0 +1,43 @@
+package edu.gwu.text;
+
+import org.apache.lucene.search.Query;
+
+/**
+ * One hit as a row of TextUI's result list.  The header (path and page, plus
+ * the metadata and explanation when explained) is built with the page; the
+ * highlighted fragments are added by LuceneTextIndex.highlight once the row
+ * is scrolled into view, and toString() renders whichever the row has.
+ */
+public class TextRow
+{
+	final Query query;
+	final int doc;
+	//version of the reader doc belongs to; doc numbers change when it does
+	final long version;
+	private final String header;
+	private volatile String html;
+
+	TextRow(Query query, int doc, long version, String header)
+	{
+		this.query = query;
+		this.doc = doc;
+		this.version = version;
+		this.header = header;
+	}
+
+	public boolean isHighlighted()
+	{
+		return html != null;
+	}
+
+	void setMatches(String matches)
+	{
+		html = "<html>"+header+matches+"</html>";
+	}
+
+	@Override
+	public String toString()
+	{
+		return html != null ? html : "<html>"+header+"</html>";
+	}
+}
@@ -5,21 +5,20 @@ import java.awt.Dimension;
 import java.awt.FileDialog;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.AdjustmentEvent;
+import java.awt.event.AdjustmentListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.RejectedExecutionHandler;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.DefaultListModel;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
+import javax.swing.JFileChooser;
+import javax.swing.JScrollBar;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JList;
@@ -28,6 +27,8 @@ import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.ProgressMonitor;
 import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 
@@ -37,26 +38,34 @@ import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
 import org.apache.tika.exception.TikaException;
 import org.xml.sax.SAXException;
 
+import edu.gwu.search.ResultPage;
+import edu.gwu.search.SearchCancelledException;
+import edu.gwu.search.SearchScheduler;
+import edu.gwu.search.SearchTicket;
+
 public class TextUI extends JFrame implements KeyListener, DocumentListener
 {
+	//quiet time after a keystroke before searching, and time allowed to collect hits
+	private static final long SETTLE_MS = 150;
+	private static final long BUDGET_MS = 1500;
+	
 	private JTextField search;
-	private final ThreadPoolExecutor executor;
-	private final BlockingQueue<Runnable> workQueue = new ArrayBlockingQueue<Runnable>(10);
+	private final SearchScheduler searches = new SearchScheduler("text-search", SETTLE_MS, BUDGET_MS);
+	private final SearchScheduler pages = new SearchScheduler("text-pages", 0, 0);
+	//highlights the rows in view once scrolling pauses; a newer scroll replaces it
+	private final SearchScheduler highlights = new SearchScheduler("text-highlight", 50, 0);
 	
 	private final LuceneTextIndex index;
 	private DefaultListModel listModel;
+	private JList searchResults;
 	private JCheckBox explainResults;
-	private final AtomicBoolean searching = new AtomicBoolean(false);
+	//paging state, only touched on the EDT
+	private ResultPage.Cursor nextPage;
+	private boolean pageExplain;
+	private boolean fetchingPage;
 	
 	public TextUI() throws IOException
 	{
-		executor = new ThreadPoolExecutor(3, 3, 10, TimeUnit.SECONDS, workQueue, new RejectedExecutionHandler()
-		{
-			@Override
-			public void rejectedExecution(Runnable arg0, ThreadPoolExecutor arg1) {
-				System.out.println("Work rejected");
-			}
-		});
 		index = new LuceneTextIndex(new File(System.getProperty("user.dir"), "text-index"));
 		updateUI();
 	}
@@ -105,6 +114,22 @@ public class TextUI extends JFrame implements KeyListener, DocumentListener
 			}
 		});
 		
+		JButton folder = new JButton("Index folder...");
+		folder.addActionListener(new ActionListener()
+		{
+			@Override
+			public void actionPerformed(ActionEvent e)
+			{
+				JFileChooser chooser = new JFileChooser(System.getProperty("user.dir"));
+				chooser.setDialogTitle("Select a folder of documents");
+				chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+				if(chooser.showOpenDialog(TextUI.this) == JFileChooser.APPROVE_OPTION)
+				{
+					indexFolder(chooser.getSelectedFile());
+				}
+			}
+		});
+		
 		JButton terms = new JButton("Show index terms");
 		terms.addActionListener(new ActionListener(){
 			@Override
@@ -123,22 +148,113 @@ public class TextUI extends JFrame implements KeyListener, DocumentListener
 		searchPan.add(searchLab);
 		searchPan.add(search);
 		searchPan.add(add);
+		searchPan.add(folder);
 		searchPan.add(terms);
 		searchPan.add(explainResults);
 		
 		listModel = new DefaultListModel();
 		listModel.addElement("Search result will go here");
-		JList searchResults = new JList(listModel);
+		searchResults = new JList(listModel);
 		
 		JScrollPane scroller = new JScrollPane(searchResults);
 		scroller.setPreferredSize(new Dimension(800, 350));
+		scroller.getVerticalScrollBar().addAdjustmentListener(new AdjustmentListener()
+		{
+			@Override
+			public void adjustmentValueChanged(AdjustmentEvent e)
+			{
+				JScrollBar bar = (JScrollBar)e.getAdjustable();
+				if(bar.getValue() + bar.getVisibleAmount() * 2 >= bar.getMaximum())
+				{
+					fetchNextPage();
+				}
+			}
+		});
+		
+		scroller.getViewport().addChangeListener(new ChangeListener()
+		{
+			@Override
+			public void stateChanged(ChangeEvent e)
+			{
+				highlightVisible();
+			}
+		});
 		
 		this.getContentPane().add(searchPan, BorderLayout.NORTH);
 		this.getContentPane().add(scroller, BorderLayout.CENTER);
 	}
 	
 
-	private void updateResults(final List results)
+	/**
+	 * Crawls the folder on its own thread, showing progress until it is done
+	 * or cancelled, then lists the crawl's throughput.
+	 */
+	private void indexFolder(final File folder)
+	{
+		final ProgressMonitor mon = new ProgressMonitor(TextUI.this, "Indexing "+folder.getName()+"...", "", 0, 1);
+		mon.setMillisToDecideToPopup(0);
+		Thread crawler = new Thread("folder-crawl")
+		{
+			@Override
+			public void run()
+			{
+				final long start = System.currentTimeMillis();
+				try
+				{
+					FolderCrawl crawl = index.addFolder(folder, Runtime.getRuntime().availableProcessors(),
+							new FolderCrawl.Progress()
+							{
+								@Override
+								public void update(final FolderCrawl crawl)
+								{
+									SwingUtilities.invokeLater(new Runnable()
+									{
+										@Override
+										public void run()
+										{
+											if(mon.isCanceled())
+											{
+												crawl.cancel();
+											}
+											mon.setMaximum(Math.max(1, crawl.getFilesFound()));
+											mon.setProgress(crawl.getFilesIndexed() + crawl.getFilesSkipped());
+											mon.setNote(crawl.getFilesIndexed()+" of "+crawl.getFilesFound()+" files");
+										}
+									});
+								}
+							});
+					List<String> summary = new ArrayList<String>();
+					summary.add("Indexed "+crawl.getFilesIndexed()+" files from "+folder+" in "
+							+printFormattedMS(System.currentTimeMillis() - start));
+					summary.add(String.format("%.1f files/sec, %.2f MB/sec, %d skipped",
+							crawl.getFilesPerSecond(), crawl.getBytesPerSecond() / 1048576.0, crawl.getFilesSkipped()));
+					updateResults(summary);
+				}catch(IOException e)
+				{
+					e.printStackTrace();
+				}finally
+				{
+					SwingUtilities.invokeLater(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							mon.close();
+						}
+					});
+				}
+			}
+		};
+		crawler.setDaemon(true);
+		crawler.start();
+	}
+	
+	private void updateResults(List results)
+	{
+		updateResults(results, null, false);
+	}
+	
+	private void updateResults(final List results, final ResultPage.Cursor next, final boolean explain)
 	{		
 		SwingUtilities.invokeLater(new Runnable()
 		{
@@ -150,33 +266,145 @@ public class TextUI extends JFrame implements KeyListener, DocumentListener
 				{
 					listModel.addElement(res);
 				}
+				nextPage = next;
+				pageExplain = explain;
+				fetchingPage = false;
+				highlightVisible();
 			}
 		});
 	}
 	
-	public void doSearch()
+	/**
+	 * Called on the EDT when the list scrolls or changes: highlights the
+	 * result rows in view that are not highlighted yet.  Rows scrolled past
+	 * before their turn are left for when they come back into view.
+	 */
+	private void highlightVisible()
 	{
-		if(searching.get())
+		final List<TextRow> rows = new ArrayList<TextRow>();
+		int last = Math.min(searchResults.getLastVisibleIndex(), listModel.size() - 1);
+		for(int i=Math.max(0, searchResults.getFirstVisibleIndex()); i<=last; i++)
+		{
+			Object res = listModel.get(i);
+			if(res instanceof TextRow && !((TextRow)res).isHighlighted())
+			{
+				rows.add((TextRow)res);
+			}
+		}
+		if(rows.isEmpty())
 		{
 			return;
 		}
-		if(search.getText().isEmpty())
+		highlights.submit(new SearchScheduler.Search()
+		{
+			@Override
+			public void run(SearchTicket ticket)
+			{
+				try {
+					index.highlight(rows, ticket);
+				} catch (IOException e) {
+					e.printStackTrace();
+				} catch (InvalidTokenOffsetsException e) {
+					e.printStackTrace();
+				} catch(SearchCancelledException e)
+				{
+					//scrolled on; the rows still in view are highlighted by the newer request
+				}
+				SwingUtilities.invokeLater(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						for(TextRow row : rows)
+						{
+							//repaints the row at its new height, if it is still listed
+							int i = listModel.indexOf(row);
+							if(i >= 0 && row.isHighlighted())
+							{
+								listModel.set(i, row);
+							}
+						}
+					}
+				});
+			}
+		});
+	}
+	
+	/**
+	 * Called on the EDT when the list is scrolled near its end: fetches the
+	 * page after the last one shown and appends it, unless a newer search
+	 * has replaced the list in the meantime.
+	 */
+	private void fetchNextPage()
+	{
+		if(fetchingPage || nextPage == null)
 		{
 			return;
 		}
-		try {
-			searching.set(true);
-			List results;
-			if(explainResults.isSelected())
+		fetchingPage = true;
+		final ResultPage.Cursor cursor = nextPage;
+		final boolean explain = pageExplain;
+		pages.submit(new SearchScheduler.Search()
+		{
+			@Override
+			public void run(SearchTicket ticket)
 			{
-				results = index.findResultsExplain(search.getText());
-			}else
+				ResultPage<TextRow> page = null;
+				try {
+					page = index.findRows((String)cursor.getState(), cursor, LuceneTextIndex.PAGE_SIZE, explain, ticket);
+				} catch (ParseException e) {
+					e.printStackTrace();
+				} catch (IOException e) {
+					e.printStackTrace();
+				} catch (InvalidTokenOffsetsException e) {
+					e.printStackTrace();
+				}
+				final ResultPage<TextRow> fetched = page;
+				SwingUtilities.invokeLater(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						if(nextPage != cursor)
+						{
+							return;
+						}
+						fetchingPage = false;
+						if(fetched == null)
+						{
+							nextPage = null;
+							return;
+						}
+						for(TextRow res : fetched.getResults())
+						{
+							listModel.addElement(res);
+						}
+						nextPage = fetched.getNext();
+						highlightVisible();
+					}
+				});
+			}
+		});
+	}
+	
+	/**
+	 * Runs on the scheduler thread with the text and options captured when
+	 * the search was submitted.
+	 */
+	private void doSearch(String text, boolean explain, SearchTicket ticket)
+	{
+		if(text.isEmpty())
+		{
+			return;
+		}
+		try {
+			ResultPage<TextRow> page = index.findRows(text, null, LuceneTextIndex.PAGE_SIZE, explain, ticket);
+			ticket.checkpoint();
+			if(ticket.isPartial())
 			{
-				results = index.findResults(search.getText());
+				System.out.println("Search for "+text+" hit its time budget; results are partial");
 			}
-			
-			searching.set(false);
-			updateResults(results);			
+			updateResults(page.getResults(), page.getNext(), explain);
 		} catch (CorruptIndexException e) {
 			e.printStackTrace();
 		} catch (ParseException e) {
@@ -185,14 +413,27 @@ public class TextUI extends JFrame implements KeyListener, DocumentListener
 			e.printStackTrace();
 		} catch (InvalidTokenOffsetsException e) {
 			e.printStackTrace();
+		} catch(SearchCancelledException e)
+		{
+			//a newer search replaced this one
 		} catch(RuntimeException e)
 		{
 			e.printStackTrace();
 		}
-		finally
+	}
+	
+	private void submitSearch()
+	{
+		final String text = search.getText();
+		final boolean explain = explainResults.isSelected();
+		searches.submit(new SearchScheduler.Search()
 		{
-			searching.set(false);
-		}		
+			@Override
+			public void run(SearchTicket ticket)
+			{
+				doSearch(text, explain, ticket);
+			}
+		});
 	}
 	
 	private String printFormattedMS(long ms)
@@ -246,25 +487,11 @@ public class TextUI extends JFrame implements KeyListener, DocumentListener
 
 	@Override
 	public void insertUpdate(DocumentEvent arg0) {
-		executor.execute(new Runnable()
-		{
-			@Override
-			public void run()
-			{
-				doSearch();
-			}
-		});
+		submitSearch();
 	}
 
 	@Override
 	public void removeUpdate(DocumentEvent arg0) {
-		executor.execute(new Runnable()
-		{
-			@Override
-			public void run()
-			{
-				doSearch();
-			}
-		});
+		submitSearch();
 	}
 }
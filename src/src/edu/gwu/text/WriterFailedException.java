@@ -0,0 +1,18 @@
+package edu.gwu.text;
+
+import java.io.IOException;
+
+/**
+ * Thrown by LuceneTextIndex.addDocuments when the IndexWriter, rather than
+ * the file being read, failed, so a crawl can stop instead of skipping the
+ * file.  The writer's exception is the cause.
+ */
+class WriterFailedException extends IOException
+{
+	private static final long serialVersionUID = 1L;
+
+	WriterFailedException(Throwable cause)
+	{
+		super("Index writer failed", cause);
+	}
+}
@@ -0,0 +1,138 @@
+package edu.gwu.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+
+/**
+ * Checks refresh() semantics: it returns true and advances the generation
+ * only when a commit changed what searches see, and concurrent callers each
+ * see their own commit once their refresh() returns.  Runs on single and
+ * sharded searchers.
+ *
+ * Usage: SharedSearcherTest; exits non-zero on failure.
+ */
+public class SharedSearcherTest
+{
+	private static final int THREADS = 8;
+
+	public static void main(String[] args) throws Exception
+	{
+		test(1);
+		test(3);
+		System.out.println("SharedSearcherTest passed");
+	}
+
+	private static void test(int shards) throws Exception
+	{
+		Directory[] dirs = new Directory[shards];
+		final IndexWriter[] writers = new IndexWriter[shards];
+		for(int i=0; i<shards; i++)
+		{
+			dirs[i] = new RAMDirectory();
+			writers[i] = new IndexWriter(dirs[i], new IndexWriterConfig(Version.LUCENE_36,
+					new StandardAnalyzer(Version.LUCENE_36)));
+			writers[i].commit();
+		}
+		final SharedSearcher searchers = new SharedSearcher(dirs);
+		try
+		{
+			check(count(searchers, "id", "none") == 0, "an empty index at first");
+			long generation = searchers.getGeneration();
+			check(!searchers.refresh(), shards+" shards: refresh() with nothing committed returns false");
+			check(searchers.getGeneration() == generation, shards+" shards: generation unchanged without a commit");
+			long reopens = searchers.getMetrics().getSearcherReopens();
+
+			add(writers[0], "first");
+			writers[0].commit();
+			check(searchers.refresh(), shards+" shards: refresh() after a commit returns true");
+			check(searchers.getGeneration() == generation + 1, shards+" shards: one commit advances the generation once");
+			check(searchers.getMetrics().getSearcherReopens() == reopens + 1, shards+" shards: one reopen counted");
+			check(count(searchers, "id", "first") == 1, shards+" shards: the commit is searchable");
+			check(!searchers.refresh(), shards+" shards: a second refresh() finds nothing new");
+			check(searchers.getGeneration() == generation + 1, shards+" shards: and leaves the generation alone");
+
+			//every thread commits and refreshes at once, then must find its own document
+			final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+			List<Thread> threads = new ArrayList<Thread>();
+			for(int t=0; t<THREADS; t++)
+			{
+				final String id = "thread"+t;
+				final IndexWriter w = writers[t % shards];
+				Thread thread = new Thread()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							add(w, id);
+							w.commit();
+							searchers.refresh();
+							check(count(searchers, "id", id) == 1, "thread sees its own commit after refresh()");
+						}catch(Throwable e)
+						{
+							failure.compareAndSet(null, e);
+						}
+					}
+				};
+				thread.start();
+				threads.add(thread);
+			}
+			for(Thread t : threads)
+			{
+				t.join();
+			}
+			if(failure.get() != null)
+			{
+				throw new AssertionError(shards+" shards: "+failure.get());
+			}
+		}finally
+		{
+			searchers.close();
+			for(IndexWriter w : writers)
+			{
+				w.close();
+			}
+		}
+	}
+
+	private static void add(IndexWriter w, String id) throws Exception
+	{
+		Document doc = new Document();
+		doc.add(new Field("id", id, Field.Store.YES, Field.Index.NOT_ANALYZED));
+		w.addDocument(doc);
+	}
+
+	private static int count(SharedSearcher searchers, String field, String value) throws Exception
+	{
+		IndexSearcher searcher = searchers.acquire();
+		try
+		{
+			return searcher.search(new TermQuery(new Term(field, value)), 10).totalHits;
+		}finally
+		{
+			searchers.release(searcher);
+		}
+	}
+
+	private static void check(boolean condition, String expectation)
+	{
+		if(!condition)
+		{
+			throw new AssertionError("Expected: "+expectation);
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package edu.gwu.spatial;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Checks that updateFile applies a newer release as a delta: a feature
+ * dropped from the release is deleted, a renamed one is replaced, a new one is
+ * added and the rest are left alone.  Also checks that an index whose
+ * features have no FEATURE_ID is refused rather than emptied.
+ *
+ * Usage: DeltaIngestTest [work dir]; exits non-zero on failure.
+ */
+public class DeltaIngestTest
+{
+	private static final double[] BOX = {38.0, 39.0, -78.0, -77.0};
+
+	public static void main(String[] args) throws Exception
+	{
+		File work = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"),
+				"delta-ingest-test-"+System.nanoTime());
+		if(!work.mkdirs())
+		{
+			throw new IOException("Cannot create "+work);
+		}
+		testDelta(work);
+		testRefusedWithoutIds(work);
+		System.out.println("DeltaIngestTest passed");
+	}
+
+	private static void testDelta(File work) throws Exception
+	{
+		File v1 = new File(work, "NationalFile_v1.txt");
+		Writer out = open(v1, true);
+		try
+		{
+			for(int id=1; id<=5; id++)
+			{
+				write(out, id, "Creek"+id, 38.1 + id * 0.1);
+			}
+		}finally
+		{
+			out.close();
+		}
+		//2 is dropped, 3 renamed, 6 added
+		File v2 = new File(work, "NationalFile_v2.txt");
+		out = open(v2, true);
+		try
+		{
+			write(out, 1, "Creek1", 38.2);
+			write(out, 3, "Renamed3", 38.4);
+			write(out, 4, "Creek4", 38.5);
+			write(out, 5, "Creek5", 38.6);
+			write(out, 6, "Creek6", 38.7);
+		}finally
+		{
+			out.close();
+		}
+
+		USGSDomesticNamesIndex index = new USGSDomesticNamesIndex(new File(work, "index"));
+		try
+		{
+			index.addFile(v1, 1);
+			check(names(index).equals(set("Creek1", "Creek2", "Creek3", "Creek4", "Creek5")), "v1 indexed, got "+names(index));
+
+			index.updateFile(v2);
+			Set<String> names = names(index);
+			check(!names.contains("Creek2"), "the dropped feature is deleted, got "+names);
+			check(!names.contains("Creek3") && names.contains("Renamed3"), "the renamed feature is replaced, got "+names);
+			check(names.contains("Creek6"), "the new feature is added, got "+names);
+			check(names.equals(set("Creek1", "Renamed3", "Creek4", "Creek5", "Creek6")), "exactly v2 indexed, got "+names);
+
+			//the same release again changes nothing
+			index.updateFile(v2);
+			check(names(index).equals(names), "an unchanged release leaves the index alone, got "+names(index));
+		}finally
+		{
+			index.close();
+		}
+	}
+
+	private static void testRefusedWithoutIds(File work) throws Exception
+	{
+		File noIds = new File(work, "NoIds.txt");
+		Writer out = open(noIds, false);
+		try
+		{
+			for(int i=1; i<=3; i++)
+			{
+				out.write("Creek"+i+"|Stream|VA|51|Test|1|||"+(38.1 + i * 0.1)+"|-77.5|||||100|328|Test|01/01/2000|\n");
+			}
+		}finally
+		{
+			out.close();
+		}
+		File release = new File(work, "NationalFile_release.txt");
+		out = open(release, true);
+		try
+		{
+			write(out, 1, "Creek1", 38.2);
+		}finally
+		{
+			out.close();
+		}
+
+		USGSDomesticNamesIndex index = new USGSDomesticNamesIndex(new File(work, "index-noids"));
+		try
+		{
+			index.addFile(noIds, 1);
+			check(names(index).size() == 3, "3 features indexed without FEATURE_ID, got "+names(index));
+			boolean refused = false;
+			try
+			{
+				index.updateFile(release);
+			}catch(IOException e)
+			{
+				refused = true;
+			}
+			check(refused, "updateFile refuses an index without FEATURE_ID");
+			check(names(index).size() == 3, "the refused update deletes nothing, got "+names(index));
+		}finally
+		{
+			index.close();
+		}
+	}
+
+	private static Set<String> names(USGSDomesticNamesIndex index) throws Exception
+	{
+		Set<String> names = new HashSet<String>();
+		for(GeoResult r : index.findInBox("*:*", BOX, 100, null).getResults())
+		{
+			//the name is followed by the county, state and class
+			names.add(r.name.substring(0, r.name.indexOf(',')));
+		}
+		return names;
+	}
+
+	private static Set<String> set(String... names)
+	{
+		Set<String> set = new HashSet<String>();
+		for(String name : names)
+		{
+			set.add(name);
+		}
+		return set;
+	}
+
+	private static Writer open(File file, boolean ids) throws IOException
+	{
+		Writer out = new FileWriter(file);
+		out.write((ids ? "FEATURE_ID|" : "")+"FEATURE_NAME|FEATURE_CLASS|STATE_ALPHA|STATE_NUMERIC|COUNTY_NAME|COUNTY_NUMERIC"
+				+"|PRIMARY_LAT_DMS|PRIM_LONG_DMS|PRIM_LAT_DEC|PRIM_LONG_DEC|SOURCE_LAT_DMS|SOURCE_LONG_DMS|SOURCE_LAT_DEC"
+				+"|SOURCE_LONG_DEC|ELEV_IN_M|ELEV_IN_FT|MAP_NAME|DATE_CREATED|DATE_EDITED\n");
+		return out;
+	}
+
+	private static void write(Writer out, int id, String name, double lat) throws IOException
+	{
+		out.write(id+"|"+name+"|Stream|VA|51|Test|1|||"+lat+"|-77.5|||||100|328|Test|01/01/2000|\n");
+	}
+
+	private static void check(boolean condition, String expectation)
+	{
+		if(!condition)
+		{
+			throw new AssertionError("Expected: "+expectation);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package edu.gwu.spatial;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks that panning and zooming with IncrementalViewportSearch gives the
+ * same results as searching each view in full with findInBox.  Results tied
+ * on the lowest score may differ, since either search may cut the tie at a
+ * different place, so the scores are compared in full and the results above
+ * the lowest score as a set.
+ *
+ * Usage: IncrementalViewportSearchTest [work dir]; exits non-zero on failure.
+ */
+public class IncrementalViewportSearchTest
+{
+	private static final int FEATURES = 3000;
+	private static final int LIMIT = 20;
+	private static final String[] WORDS = {"Run", "Creek", "Branch", "Fork", "North", "South", "Upper", "Lower"};
+
+	public static void main(String[] args) throws Exception
+	{
+		File work = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"),
+				"incremental-viewport-test-"+System.nanoTime());
+		if(!work.mkdirs())
+		{
+			throw new IOException("Cannot create "+work);
+		}
+		File data = new File(work, "NationalFile.txt");
+		writeFeatures(data);
+
+		USGSDomesticNamesIndex index = new USGSDomesticNamesIndex(new File(work, "index"));
+		try
+		{
+			index.addFile(data, 1);
+			//a dense query cut at the limit, so merges must check the floors, and a sparse one
+			for(String query : new String[]{"mill", "rare"})
+			{
+				IncrementalViewportSearch search = new IncrementalViewportSearch(index, LIMIT);
+				for(double[] view : views())
+				{
+					List<GeoResult> incremental = search.update(query, view, null);
+					List<GeoResult> full = index.findInBox(query, view, LIMIT, null).getResults();
+					compare(query, view, incremental, full);
+				}
+				check(search.getIncrementalUpdates() > 0, query+": some views were merged, got "+search);
+			}
+		}finally
+		{
+			index.close();
+		}
+		System.out.println("IncrementalViewportSearchTest passed");
+	}
+
+	//pans east and north, then back south west, then zooms out and in
+	private static List<double[]> views()
+	{
+		List<double[]> views = new ArrayList<double[]>();
+		double[] view = {38.5, 39.0, -78.0, -77.5};
+		views.add(view);
+		for(int i=0; i<5; i++)
+		{
+			view = move(view, 0, 0.05);
+			views.add(view);
+		}
+		for(int i=0; i<3; i++)
+		{
+			view = move(view, 0.05, 0);
+			views.add(view);
+		}
+		for(int i=0; i<3; i++)
+		{
+			view = move(view, -0.07, -0.07);
+			views.add(view);
+		}
+		view = new double[]{view[0] - 0.1, view[1] + 0.1, view[2] - 0.1, view[3] + 0.1};
+		views.add(view);
+		view = new double[]{view[0] + 0.2, view[1] - 0.2, view[2] + 0.2, view[3] - 0.2};
+		views.add(view);
+		return views;
+	}
+
+	private static double[] move(double[] view, double lat, double lon)
+	{
+		return new double[]{view[0] + lat, view[1] + lat, view[2] + lon, view[3] + lon};
+	}
+
+	private static void compare(String query, double[] view, List<GeoResult> incremental, List<GeoResult> full)
+	{
+		String where = query+" in "+view[0]+", "+view[1]+", "+view[2]+", "+view[3];
+		check(incremental.size() == full.size(), where+": "+full.size()+" results, got "+incremental.size());
+		for(int i=0; i<full.size(); i++)
+		{
+			check(incremental.get(i).score == full.get(i).score, where+": result "+i+" scores "+full.get(i).score
+					+", got "+incremental.get(i).score);
+		}
+		if(full.isEmpty())
+		{
+			return;
+		}
+		float lowest = full.get(full.size() - 1).score;
+		check(above(incremental, lowest).equals(above(full, lowest)), where+": the same results above the lowest score");
+	}
+
+	private static Set<GeoResult> above(List<GeoResult> results, float score)
+	{
+		Set<GeoResult> above = new HashSet<GeoResult>();
+		for(GeoResult r : results)
+		{
+			if(r.score > score)
+			{
+				above.add(r);
+			}
+		}
+		return above;
+	}
+
+	//names of varied length, so the matches score differently
+	private static void writeFeatures(File file) throws IOException
+	{
+		Random random = new Random(42);
+		Writer out = new FileWriter(file);
+		try
+		{
+			out.write("FEATURE_ID|FEATURE_NAME|FEATURE_CLASS|STATE_ALPHA|STATE_NUMERIC|COUNTY_NAME|COUNTY_NUMERIC"
+					+"|PRIMARY_LAT_DMS|PRIM_LONG_DMS|PRIM_LAT_DEC|PRIM_LONG_DEC|SOURCE_LAT_DMS|SOURCE_LONG_DMS|SOURCE_LAT_DEC"
+					+"|SOURCE_LONG_DEC|ELEV_IN_M|ELEV_IN_FT|MAP_NAME|DATE_CREATED|DATE_EDITED\n");
+			for(int id=1; id<=FEATURES; id++)
+			{
+				StringBuilder name = new StringBuilder(random.nextInt(50) == 0 ? "Rare" : random.nextBoolean() ? "Mill" : "Spring");
+				for(int w=random.nextInt(4); w>0; w--)
+				{
+					name.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+				}
+				double lat = 38.0 + random.nextDouble() * 2;
+				double lon = -79.0 + random.nextDouble() * 3;
+				out.write(id+"|"+name+"|Stream|VA|51|Test|1|||"+lat+"|"+lon+"|||||100|328|Test|01/01/2000|\n");
+			}
+		}finally
+		{
+			out.close();
+		}
+	}
+
+	private static void check(boolean condition, String expectation)
+	{
+		if(!condition)
+		{
+			throw new AssertionError("Expected: "+expectation);
+		}
+	}
+}
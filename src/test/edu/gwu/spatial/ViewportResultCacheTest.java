@@ -0,0 +1,143 @@
+package edu.gwu.spatial;
+
+import gov.nasa.worldwind.geom.Position;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import edu.gwu.search.ResultPage;
+
+/**
+ * Checks that viewport searches never return features outside the viewport,
+ * though the cache searches the viewport snapped outward to its grid.  The
+ * index holds more than a page of matches inside the viewport, and the
+ * highest ranked matches of the snapped box lie in the margin the snap adds.
+ *
+ * Usage: ViewportResultCacheTest [work dir]; exits non-zero on failure.
+ */
+public class ViewportResultCacheTest
+{
+	private static final double MIN_LAT = 38.01, MAX_LAT = 39.0, MIN_LON = -78.0, MAX_LON = -77.0;
+	private static final int MARGIN_MATCHES = 60;
+	private static final int INSIDE_MATCHES = 150;
+
+	public static void main(String[] args) throws Exception
+	{
+		File work = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"),
+				"viewport-cache-test-"+System.nanoTime());
+		if(!work.mkdirs())
+		{
+			throw new IOException("Cannot create "+work);
+		}
+		File data = new File(work, "NationalFile.txt");
+		writeFeatures(data);
+
+		USGSDomesticNamesIndex index = new USGSDomesticNamesIndex(new File(work, "index"));
+		try
+		{
+			//one worker keeps file order as doc order, so the margin rows rank first on equal scores
+			index.addFile(data, 1);
+			Position nw = Position.fromDegrees(MAX_LAT, MIN_LON, 0);
+			Position se = Position.fromDegrees(MIN_LAT, MAX_LON, 0);
+
+			ResultPage<GeoResult> first = index.findPage("mill", nw, se, null, 100);
+			check(first.getResults().size() == 100, "first page has 100 results, got "+first.getResults().size());
+			checkInside(first.getResults());
+			check(first.getNext() != null, "first page has a next page");
+
+			//every match inside the viewport, and nothing else, across all pages
+			Set<String> names = new HashSet<String>();
+			ResultPage<GeoResult> page = first;
+			while(true)
+			{
+				checkInside(page.getResults());
+				for(GeoResult r : page.getResults())
+				{
+					check(names.add(r.name.substring(r.name.indexOf(' ') + 1)), "no repeated result: "+r.name);
+				}
+				if(page.getNext() == null)
+				{
+					break;
+				}
+				page = index.findPage("mill", nw, se, page.getNext(), 100);
+			}
+			check(names.size() == INSIDE_MATCHES, INSIDE_MATCHES+" matches in the viewport, got "+names.size());
+
+			//the same viewport again, now that the snapped box is cached
+			ResultPage<GeoResult> again = index.findPage("mill", nw, se, null, 100);
+			check(again.getResults().equals(first.getResults()), "repeated search returns the same page");
+
+			//other page sizes skip the cache and must search the viewport as given
+			ResultPage<GeoResult> small = index.findPage("mill", nw, se, null, 10);
+			check(small.getResults().size() == 10, "page of 10 has 10 results, got "+small.getResults().size());
+			checkInside(small.getResults());
+			checkInside(index.findPage("mill", nw, se, small.getNext(), 10).getResults());
+
+			//a sparse query is answered completely from its snapped box, filtered
+			List<GeoResult> sparse = index.findPage("lonely", nw, se, null, 100).getResults();
+			check(sparse.size() == 1, "one lonely feature in the viewport, got "+sparse.size());
+			checkInside(sparse);
+		}finally
+		{
+			index.close();
+		}
+		System.out.println("ViewportResultCacheTest passed");
+	}
+
+	private static void writeFeatures(File file) throws IOException
+	{
+		double[] snapped = ViewportResultCache.snap(MIN_LAT, MAX_LAT, MIN_LON, MAX_LON);
+		check(snapped[0] < MIN_LAT, "the snap widens the viewport to the south");
+		double marginLat = (snapped[0] + MIN_LAT) / 2;
+		Writer out = new FileWriter(file);
+		try
+		{
+			out.write("FEATURE_ID|FEATURE_NAME|FEATURE_CLASS|STATE_ALPHA|STATE_NUMERIC|COUNTY_NAME|COUNTY_NUMERIC"
+					+"|PRIMARY_LAT_DMS|PRIM_LONG_DMS|PRIM_LAT_DEC|PRIM_LONG_DEC|SOURCE_LAT_DMS|SOURCE_LONG_DMS|SOURCE_LAT_DEC"
+					+"|SOURCE_LONG_DEC|ELEV_IN_M|ELEV_IN_FT|MAP_NAME|DATE_CREATED|DATE_EDITED\n");
+			int id = 1;
+			for(int i=0; i<MARGIN_MATCHES; i++)
+			{
+				write(out, id++, "Mill Margin"+i, marginLat, MIN_LON + 0.5);
+			}
+			for(int i=0; i<INSIDE_MATCHES; i++)
+			{
+				write(out, id++, "Mill Inside"+i, MIN_LAT + 0.1 + i * 0.005, MIN_LON + 0.5);
+			}
+			write(out, id++, "Lonely Margin", marginLat, MIN_LON + 0.25);
+			write(out, id++, "Lonely Inside", MIN_LAT + 0.5, MIN_LON + 0.25);
+		}finally
+		{
+			out.close();
+		}
+	}
+
+	private static void write(Writer out, int id, String name, double lat, double lon) throws IOException
+	{
+		out.write(id+"|"+name+"|Stream|VA|51|Test|1|||"+lat+"|"+lon+"|||||100|328|Test|01/01/2000|\n");
+	}
+
+	private static void checkInside(List<GeoResult> results)
+	{
+		for(GeoResult r : results)
+		{
+			double lat = r.pos.getLatitude().getDegrees();
+			double lon = r.pos.getLongitude().getDegrees();
+			check(lat >= MIN_LAT && lat <= MAX_LAT && lon >= MIN_LON && lon <= MAX_LON,
+					r.name+" at "+lat+", "+lon+" lies in the viewport");
+		}
+	}
+
+	private static void check(boolean condition, String expectation)
+	{
+		if(!condition)
+		{
+			throw new AssertionError("Expected: "+expectation);
+		}
+	}
+}
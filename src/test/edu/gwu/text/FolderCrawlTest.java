@@ -0,0 +1,118 @@
+package edu.gwu.text;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+/**
+ * Checks that a crawl skips a file it cannot read but stops when the index
+ * writer fails, rather than counting the writer's failures as skipped files.
+ *
+ * Usage: FolderCrawlTest [work dir]; exits non-zero on failure.
+ */
+public class FolderCrawlTest
+{
+	public static void main(String[] args) throws Exception
+	{
+		File work = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"),
+				"folder-crawl-test-"+System.nanoTime());
+		File docs = new File(work, "docs");
+		if(!docs.mkdirs())
+		{
+			throw new IOException("Cannot create "+docs);
+		}
+		writePDF(new File(docs, "good.pdf"), "aardvark");
+		OutputStream out = new FileOutputStream(new File(docs, "broken.pdf"));
+		try
+		{
+			out.write("this is not a pdf".getBytes("US-ASCII"));
+		}finally
+		{
+			out.close();
+		}
+
+		LuceneTextIndex index = new LuceneTextIndex(new File(work, "index"));
+		try
+		{
+			FolderCrawl crawl = index.addFolder(docs, 2, null);
+			check(crawl.getFilesFound() == 2, "2 files found, got "+crawl.getFilesFound());
+			check(crawl.getFilesIndexed() == 1, "the good file indexed, got "+crawl.getFilesIndexed());
+			check(crawl.getFilesSkipped() == 1, "the broken file skipped, got "+crawl.getFilesSkipped());
+			List<TextResult> hits = index.findHits("aardvark", 10);
+			check(hits.size() == 1 && hits.get(0).name.equals("good.pdf"), "the good file is searchable, got "+hits);
+
+			//a writer that fails on every add, as on a full disk
+			IndexWriter failing = new IndexWriter(new RAMDirectory(), new IndexWriterConfig(Version.LUCENE_36,
+					new StandardAnalyzer(Version.LUCENE_36)))
+			{
+				@Override
+				public void addDocument(Document doc) throws IOException
+				{
+					throw new IOException("Simulated full disk");
+				}
+			};
+			//one worker takes broken.pdf, then good.pdf, in name order
+			crawl = new FolderCrawl(index, failing, 1, 1, null);
+			IOException thrown = null;
+			try
+			{
+				crawl.run(docs);
+			}catch(IOException e)
+			{
+				thrown = e;
+			}finally
+			{
+				failing.close();
+			}
+			check(thrown != null && "Simulated full disk".equals(thrown.getMessage()),
+					"the writer's failure stops the crawl, got "+thrown);
+			check(crawl.getFilesSkipped() == 1, "only the broken file skipped, got "+crawl.getFilesSkipped());
+		}finally
+		{
+			index.close();
+		}
+		System.out.println("FolderCrawlTest passed");
+	}
+
+	private static void writePDF(File file, String text) throws Exception
+	{
+		PDDocument pdf = new PDDocument();
+		try
+		{
+			PDPage page = new PDPage();
+			pdf.addPage(page);
+			PDPageContentStream content = new PDPageContentStream(pdf, page);
+			content.beginText();
+			content.setFont(PDType1Font.HELVETICA, 12);
+			content.moveTextPositionByAmount(72, 700);
+			content.drawString(text);
+			content.endText();
+			content.close();
+			pdf.save(file.getPath());
+		}finally
+		{
+			pdf.close();
+		}
+	}
+
+	private static void check(boolean condition, String expectation)
+	{
+		if(!condition)
+		{
+			throw new AssertionError("Expected: "+expectation);
+		}
+	}
+}